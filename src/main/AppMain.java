@@ -15,7 +15,13 @@ import java.util.concurrent.ThreadPoolExecutor;
  * Starting point for client/server simulation. 
  * Defined number of clients are created, registered by the server and then started to sent 
  * automatically created messages of different types to the server. Also the server gets started to be able
- * to retrieve clients orders
+ * to retrieve clients orders.
+ * 
+ * If the address of a cluster router is given as argument (host:port), no local server is started and the
+ * clients interact with the cluster instead.
+ * 
+ * With -DfastStartup=true codecs and crypto are warmed up on a background thread while the server is
+ * started, clients are only started once the warm-up has finished (see StartupWarmup).
  *
  */
 public class AppMain {
@@ -30,16 +36,29 @@ public class AppMain {
 
 	public static void main(String[] args) {
 		
-		//Key for later Server encryption is generated
-				Server.masterKey = Server.generateKey();
-				logger.info("Starting server");
-				
-				//Server gets started
-		        Server server = new Server();
+		        if (StartupWarmup.fastStartup) {
+		        	StartupWarmup.start();
+		        }
 		        ArrayList<Future> futureTasks = new ArrayList<Future>();
-
 				ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
-				futureTasks.add(executor.submit(server));
+
+				MessageEndpoint server;
+				if (args.length > 0) {
+					logger.info("Using cluster at " + args[0]);
+					server = new RemoteEndpoint(RemoteEndpoint.parseAddress(args[0]));
+				} else {
+					//Key for later Server encryption is generated
+					Server.masterKey = Server.generateKey();
+					logger.info("Starting server");
+
+					//Server gets started
+					Server localServer = new Server();
+					futureTasks.add(executor.submit(localServer));
+					server = localServer;
+				}
+				//Server is reported ready once the warm-up has finished
+				StartupWarmup.awaitReady();
+
 				//Clients are registered by the server
 				try {
 					for (int i = 0; i < maxClients; i++) {
@@ -72,6 +91,12 @@ public class AppMain {
 		                System.out.println(throwable);
 		            }
 		        }
+		        // lets the JVM exit normally once the simulation is done (required e.g. for AppCDS
+		        // training runs, the archive is written at exit)
+		        executor.shutdown();
+		        if (server instanceof Server) {
+		        	((Server) server).shutdown();
+		        }
 		        
 	}
 
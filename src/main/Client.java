@@ -1,5 +1,6 @@
 package main;
 
+import java.io.UncheckedIOException;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
 import java.security.KeyPair;
@@ -13,7 +14,13 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
 import main.Message.MessageType;
@@ -33,10 +40,14 @@ public class Client implements Runnable {
 	// maximum timeout of client used in "run" Method
 	private static int sendFrequency = 5000;
 
+	// if set (-DstreamOrders=true), "run" Method sends its orders as a stream
+	// without waiting for each response
+	static boolean streamOrders = Boolean.getBoolean("streamOrders");
+
 	int clientID;
 	byte[] publicKey;
 	byte[] privateKey;
-	Server server;
+	MessageEndpoint server;
 
 	/**
 	 * Constructor of client
@@ -46,7 +57,7 @@ public class Client implements Runnable {
 	 * @param privateKey
 	 * @param server
 	 */
-	private Client(int clientID, byte[] publicKey, byte[] privateKey, Server server) {
+	private Client(int clientID, byte[] publicKey, byte[] privateKey, MessageEndpoint server) {
 		this.clientID = clientID;
 		this.publicKey = publicKey;
 		this.privateKey = privateKey;
@@ -95,13 +106,13 @@ public class Client implements Runnable {
 	 * First a key for the client is generated which will then be send to the
 	 * server. The server gives back a clientId and a new client will be generated.
 	 * 
-	 * @param server
+	 * @param server local server or remote cluster router
 	 * @return Client: new generated client
 	 * @throws NoSuchAlgorithmException
 	 * @throws CoseException
 	 * @throws IllegalStateException
 	 */
-	public static Client generateNewClient(Server server) throws NoSuchAlgorithmException, IllegalStateException {
+	public static Client generateNewClient(MessageEndpoint server) throws NoSuchAlgorithmException, IllegalStateException {
 		KeyPair key = null;
 
 		KeyPairGenerator keyPairGenerator;
@@ -160,16 +171,95 @@ public class Client implements Runnable {
 	 * @throws JsonProcessingException
 	 */
 	private void sendMessage(String message) throws JsonProcessingException {
+		String signedMessage = createSignedMessage(message);
+
+		p("sending to server: " + signedMessage);
+		String result = server.acceptMessage(signedMessage);
+		p("result from server: " + result);
+
+	}
+
+	/**
+	 * Signs the message and wraps it together with the signature
+	 * 
+	 * @param message
+	 * @return String : signed message
+	 * @throws JsonProcessingException
+	 */
+	private String createSignedMessage(String message) throws JsonProcessingException {
 		p("creating signature for message: " + message);
 		byte[] signature = signMessage(message, publicKey, privateKey);
 		p("signature is (base64 encoded): "
 				+ (signature.length > 0 ? Base64.getEncoder().encodeToString(signature) : "null"));
-		String signedMessage = SignedMessage.createSignedMessage(this.clientID, message, signature);
+		return SignedMessage.createSignedMessage(this.clientID, message, signature);
+	}
 
-		p("sending to server: " + signedMessage);
-		String result = server.acceptMessage(signedMessage);
-		p("result from server: " + result);
+	/**
+	 * Sends a stream of messages for buying/selling stock to the server. The
+	 * messages get signed and sent without waiting for the responses, the
+	 * returned publisher emits the response of the server for every message.
+	 * Messages are only requested from the given publisher as far as responses
+	 * are requested.
+	 * 
+	 * @param messages
+	 * @return Flow.Publisher<OrderResponse> : responses of the server
+	 */
+	public Flow.Publisher<OrderResponse> sendMessages(Flow.Publisher<String> messages) {
+		MessageStream stream = new MessageStream(server, message -> {
+			try {
+				return createSignedMessage(message);
+			} catch (JsonProcessingException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		messages.subscribe(stream);
+		return stream;
+	}
 
+	/**
+	 * Sends the given messages as a stream and waits until all responses have
+	 * arrived. At most maxInFlight messages are waiting for their response at the
+	 * same time.
+	 * 
+	 * @param messages
+	 * @param maxInFlight
+	 * @throws InterruptedException
+	 */
+	private void streamMessages(List<String> messages, int maxInFlight) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(1);
+		try (SubmissionPublisher<String> publisher = new SubmissionPublisher<String>(ForkJoinPool.commonPool(),
+				maxInFlight)) {
+			sendMessages(publisher).subscribe(new Flow.Subscriber<OrderResponse>() {
+				private Flow.Subscription subscription;
+
+				@Override
+				public void onSubscribe(Flow.Subscription subscription) {
+					this.subscription = subscription;
+					subscription.request(maxInFlight);
+				}
+
+				@Override
+				public void onNext(OrderResponse response) {
+					p("result from server: " + response.getResponse());
+					subscription.request(1);
+				}
+
+				@Override
+				public void onError(Throwable throwable) {
+					throwable.printStackTrace();
+					done.countDown();
+				}
+
+				@Override
+				public void onComplete() {
+					done.countDown();
+				}
+			});
+			for (String message : messages) {
+				publisher.submit(message);
+			}
+		}
+		done.await();
 	}
 
 	/**
@@ -225,10 +315,20 @@ public class Client implements Runnable {
 	@Override
 	public void run() {
 		try {
-			Thread.sleep((long) (Math.random() * sendFrequency + 1));
-			sendMessage(generateRandomMessage(MessageType.BuyStock));
-			sendMessage(generateRandomMessage(MessageType.SellStock));
-			sendMessage(generateRandomMessage(MessageType.GetOrders));
+			long delay = (long) (Math.random() * sendFrequency + 1);
+			Thread.sleep(delay);
+			// reported separately, the server measures its first order from readiness
+			p("sending orders after a start delay of " + delay + " ms");
+			if (streamOrders) {
+				streamMessages(Arrays.asList(generateRandomMessage(MessageType.BuyStock),
+						generateRandomMessage(MessageType.SellStock)), 16);
+				// the orders are only listed once the server has answered both of them
+				streamMessages(Arrays.asList(generateRandomMessage(MessageType.GetOrders)), 1);
+			} else {
+				sendMessage(generateRandomMessage(MessageType.BuyStock));
+				sendMessage(generateRandomMessage(MessageType.SellStock));
+				sendMessage(generateRandomMessage(MessageType.GetOrders));
+			}
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		} catch (NumberFormatException e) {
@@ -0,0 +1,180 @@
+package main;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Supplier;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Authentication of the requests between the router and the server nodes of a
+ * cluster.
+ *
+ * Router and nodes share a cluster secret. An authenticated request line has
+ * the form "AUTH timestamp nonce mac request", the mac is an HMAC-SHA256 with
+ * the cluster secret over "timestamp nonce request". Requests that are older
+ * than the accepted clock skew or whose nonce was already seen are rejected,
+ * so recorded requests can not be replayed.
+ *
+ * Nonces are remembered in the order they were received and expire after
+ * twice the accepted clock skew: a request that is replayed later is rejected
+ * by its timestamp anyway. Expired nonces are dropped from the oldest end, so
+ * every request only costs the nonces that expired meanwhile.
+ */
+public class ClusterAuth {
+
+	// maximum age of an accepted request
+	private static final long MAX_SKEW_MILLIS = 30000;
+
+	private static final String ALGORITHM = "HmacSHA256";
+
+	private final SecureRandom random = new SecureRandom();
+
+	// Mac instances are not thread-safe, every thread initializes its own once
+	private final ThreadLocal<Mac> macs;
+
+	// nonces of accepted requests with the time they were received, oldest first.
+	// Guarded by itself
+	private final LinkedHashMap<String, Long> seenNonces = new LinkedHashMap<String, Long>();
+
+	/**
+	 * @param secret shared cluster secret
+	 */
+	public ClusterAuth(byte[] secret) {
+		SecretKeySpec key = new SecretKeySpec(secret, ALGORITHM);
+		this.macs = ThreadLocal.withInitial(() -> {
+			try {
+				Mac mac = Mac.getInstance(ALGORITHM);
+				mac.init(key);
+				return mac;
+			} catch (NoSuchAlgorithmException | InvalidKeyException e) {
+				// every Java platform has to support HmacSHA256
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
+	/**
+	 * Authenticates a request line
+	 *
+	 * @param request
+	 * @return String : authenticated request line
+	 */
+	public String sign(String request) {
+		byte[] nonce = new byte[16];
+		random.nextBytes(nonce);
+		String timestampAndNonce = System.currentTimeMillis() + " "
+				+ Base64.getUrlEncoder().withoutPadding().encodeToString(nonce);
+		return "AUTH " + timestampAndNonce + " " + mac(timestampAndNonce + " " + request) + " " + request;
+	}
+
+	/**
+	 * Checks an authenticated request line
+	 *
+	 * @param line request line starting with AUTH
+	 * @return String : the request without authentication, null if the line is
+	 *         not authentic, too old or a replay
+	 */
+	public String verify(String line) {
+		String[] parts = line.split(" ", 5);
+		if (parts.length != 5 || !"AUTH".equals(parts[0])) {
+			return null;
+		}
+		long timestamp;
+		try {
+			timestamp = Long.parseLong(parts[1]);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		if (Math.abs(now - timestamp) > MAX_SKEW_MILLIS) {
+			return null;
+		}
+		byte[] expected = mac(parts[1] + " " + parts[2] + " " + parts[4]).getBytes(StandardCharsets.UTF_8);
+		if (!MessageDigest.isEqual(expected, parts[3].getBytes(StandardCharsets.UTF_8))) {
+			return null;
+		}
+		synchronized (seenNonces) {
+			forgetExpiredNonces(now);
+			if (seenNonces.putIfAbsent(parts[2], now) != null) {
+				return null;
+			}
+		}
+		return parts[4];
+	}
+
+	/**
+	 * A request received more than twice the accepted clock skew ago had a
+	 * timestamp that is now older than the skew, so a replay is rejected by its
+	 * timestamp and the nonce does not need to be remembered
+	 */
+	private void forgetExpiredNonces(long now) {
+		Iterator<Long> it = seenNonces.values().iterator();
+		while (it.hasNext() && now - it.next() > 2 * MAX_SKEW_MILLIS) {
+			it.remove();
+		}
+	}
+
+	private String mac(String value) {
+		return Base64.getEncoder().encodeToString(macs.get().doFinal(value.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Generates a new cluster secret
+	 *
+	 * @return byte[] secret bytes
+	 */
+	public static byte[] generateSecret() {
+		byte[] secret = new byte[32];
+		new SecureRandom().nextBytes(secret);
+		return secret;
+	}
+
+	/**
+	 * Reads a key from the file. If the file does not exist yet, the key is
+	 * generated and stored in a file that only the owner can read and write.
+	 *
+	 * @param keyFile
+	 * @param generator generates the key if the file does not exist
+	 * @return byte[] key bytes
+	 * @throws IOException
+	 */
+	public static byte[] loadOrCreateKey(Path keyFile, Supplier<byte[]> generator) throws IOException {
+		if (Files.exists(keyFile)) {
+			return Files.readAllBytes(keyFile);
+		}
+		byte[] key = generator.get();
+		Path dir = keyFile.toAbsolutePath().getParent();
+		Path tmp;
+		try {
+			tmp = Files.createTempFile(dir, ".key", ".tmp",
+					PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} catch (UnsupportedOperationException e) {
+			// no POSIX file system, the file gets the default permissions of the user
+			tmp = Files.createTempFile(dir, ".key", ".tmp");
+		}
+		try {
+			Files.write(tmp, key);
+			// the complete key file appears at once, a node started at the same time
+			// never reads a partially written key
+			Files.move(tmp, keyFile);
+			return key;
+		} catch (FileAlreadyExistsException e) {
+			return Files.readAllBytes(keyFile);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+}
@@ -0,0 +1,290 @@
+package main;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+/**
+ * Router of a cluster of server nodes.
+ *
+ * The router assigns the client IDs and maps every client ID to the node that
+ * owns the client with consistent hashing: every node is placed at several
+ * points of a hash ring, a client belongs to the next node on the ring after
+ * the hash of its ID. Signed messages are forwarded to the owning node, so the
+ * signature validation of the clients is spread over all nodes.
+ *
+ * When a node joins the cluster only the clients that are mapped to the new
+ * node are handed over to it (key and stored orders). The state of the clients
+ * is first copied to the new node, the clients are only removed from their old
+ * nodes after all copies were imported and the ring was switched. If a copy
+ * fails, the join is aborted and the clients stay on their old nodes. Messages
+ * are held back while the hand-over is in progress. A join of a node that is
+ * already part of the cluster changes nothing. Nodes are identified by their
+ * resolved address, so localhost:9101 and 127.0.0.1:9101 are the same node.
+ *
+ * Requests to the nodes and joins of nodes are authenticated with the cluster
+ * secret (see ClusterAuth), which is read from the given file.
+ *
+ * Start with: ClusterRouter port secretFile node... (node as host:port)
+ */
+public class ClusterRouter extends LineProtocolServer {
+
+	private static org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager
+			.getLogger(ClusterRouter.class);
+
+	// points of every node on the hash ring
+	private static final int VIRTUAL_NODES = 64;
+
+	// hash ring, only replaced while the write lock is held
+	private TreeMap<Integer, RemoteEndpoint> ring = new TreeMap<Integer, RemoteEndpoint>();
+
+	private final List<RemoteEndpoint> nodes = new ArrayList<RemoteEndpoint>();
+
+	// IDs of all registered clients
+	private final Set<Integer> clientIds = ConcurrentHashMap.newKeySet();
+
+	private final AtomicInteger nextClientId = new AtomicInteger();
+
+	// authenticates the requests to the nodes
+	private final ClusterAuth auth;
+
+	// read lock for forwarding requests, write lock for changing the ring
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Binds the router to the given port
+	 *
+	 * @param port
+	 * @param nodes addresses of the initial server nodes
+	 * @param auth  authentication with the cluster secret
+	 * @throws IOException
+	 */
+	public ClusterRouter(int port, List<InetSocketAddress> nodes, ClusterAuth auth) throws IOException {
+		super(port, auth);
+		this.auth = auth;
+		for (InetSocketAddress address : nodes) {
+			RemoteEndpoint node = new RemoteEndpoint(address, auth);
+			this.nodes.add(node);
+			addToRing(ring, node);
+		}
+	}
+
+	@Override
+	protected String process(String[] request, boolean authenticated) {
+		try {
+			switch (request[0]) {
+			case "REGISTER":
+				return String.valueOf(register(request[1]));
+			case "MESSAGE":
+				return forward(request[1]);
+			case "JOIN":
+				if (!authenticated) {
+					logger.warn("Unauthenticated join of " + request[1] + " rejected");
+					return "ERROR";
+				}
+				return "OK " + join(RemoteEndpoint.parseAddress(request[1]));
+			default:
+				return "ERROR";
+			}
+		} catch (IOException e) {
+			logger.error("Request " + request[0] + " could not be forwarded", e);
+			return "ERROR";
+		}
+	}
+
+	/**
+	 * Assigns an ID to a new client and registers it at its node
+	 *
+	 * @param key Base64 encoded public key of the client
+	 * @return int : client ID, -1 if the node did not accept the client
+	 * @throws IOException
+	 */
+	private int register(String key) throws IOException {
+		int clientId = nextClientId.getAndIncrement();
+		lock.readLock().lock();
+		try {
+			if (!String.valueOf(clientId).equals(owner(clientId).call("REGISTER " + clientId + " " + key))) {
+				return -1;
+			}
+			clientIds.add(clientId);
+			return clientId;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Forwards a signed message to the node of the client
+	 *
+	 * @param message Base64 encoded signed message
+	 * @return String : Base64 encoded response of the node
+	 * @throws IOException
+	 */
+	private String forward(String message) throws IOException {
+		int clientId;
+		try {
+			clientId = Message.mapper.readValue(RemoteEndpoint.decodeString(message), SignedMessage.class)
+					.getClientId();
+		} catch (JsonProcessingException e) {
+			return RemoteEndpoint.encode("{\"Failure\"}");
+		}
+		lock.readLock().lock();
+		try {
+			return owner(clientId).call("MESSAGE " + message);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds a node to the cluster and hands over the clients that are mapped to it
+	 *
+	 * @param address
+	 * @return int : number of clients handed over
+	 * @throws IOException if a client could not be copied to the new node, the
+	 *                     node is not added then
+	 */
+	private int join(InetSocketAddress address) throws IOException {
+		lock.writeLock().lock();
+		try {
+			for (RemoteEndpoint existing : nodes) {
+				if (nodeId(existing.getAddress()).equals(nodeId(address))) {
+					logger.warn("Node " + address + " is already part of the cluster");
+					return 0;
+				}
+			}
+			RemoteEndpoint node = new RemoteEndpoint(address, auth);
+			TreeMap<Integer, RemoteEndpoint> newRing = new TreeMap<Integer, RemoteEndpoint>(ring);
+			addToRing(newRing, node);
+
+			// copy the clients to the new node, they stay on their old nodes. EXPORT
+			// parks the resting orders of a client on its old node
+			List<Integer> exported = new ArrayList<Integer>();
+			List<Integer> moved = new ArrayList<Integer>();
+			try {
+				for (int clientId : clientIds) {
+					if (!nodeId(owner(newRing, clientId).getAddress()).equals(nodeId(address))) {
+						continue;
+					}
+					exported.add(clientId);
+					String state = owner(ring, clientId).call("EXPORT " + clientId);
+					if ("NONE".equals(state)) {
+						continue;
+					}
+					moved.add(clientId);
+					String response = node.call("IMPORT " + clientId + " " + state);
+					if (!"OK".equals(response)) {
+						throw new IOException("client " + clientId + " could not be imported: " + response);
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				// the old nodes still own all clients, the copies are removed and the
+				// resting orders are put back into the books of the old nodes
+				for (int clientId : exported) {
+					try {
+						node.call("REMOVE " + clientId);
+					} catch (IOException removeFailed) {
+						logger.warn("Copy of client " + clientId + " could not be removed from " + address,
+								removeFailed);
+					}
+					try {
+						owner(ring, clientId).call("RESTORE " + clientId);
+					} catch (IOException restoreFailed) {
+						logger.error("Resting orders of client " + clientId + " could not be restored",
+								restoreFailed);
+					}
+				}
+				node.close();
+				throw e;
+			}
+
+			// the new node owns the clients now, remove them from the old nodes
+			TreeMap<Integer, RemoteEndpoint> oldRing = ring;
+			nodes.add(node);
+			ring = newRing;
+			for (int clientId : moved) {
+				try {
+					owner(oldRing, clientId).call("REMOVE " + clientId);
+				} catch (IOException e) {
+					// the stale copy is never used again, the client is only reachable on
+					// the new node
+					logger.warn("Client " + clientId + " could not be removed from its old node", e);
+				}
+			}
+			logger.info("Node " + address + " joined, " + moved.size() + " clients handed over");
+			return moved.size();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private RemoteEndpoint owner(int clientId) {
+		return owner(ring, clientId);
+	}
+
+	private static RemoteEndpoint owner(TreeMap<Integer, RemoteEndpoint> ring, int clientId) {
+		if (ring.isEmpty()) {
+			throw new IllegalStateException("cluster has no server nodes");
+		}
+		Map.Entry<Integer, RemoteEndpoint> entry = ring.ceilingEntry(hash(String.valueOf(clientId)));
+		return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+	}
+
+	private static void addToRing(TreeMap<Integer, RemoteEndpoint> ring, RemoteEndpoint node) {
+		String id = nodeId(node.getAddress());
+		for (int i = 0; i < VIRTUAL_NODES; i++) {
+			ring.put(hash(id + "#" + i), node);
+		}
+	}
+
+	/**
+	 * Identifies a node by its resolved IP address and port, independent of the
+	 * host name it was given with
+	 */
+	static String nodeId(InetSocketAddress address) {
+		String host = address.getAddress() != null ? address.getAddress().getHostAddress()
+				: address.getHostString();
+		return host + ":" + address.getPort();
+	}
+
+	/**
+	 * Position on the hash ring, first four bytes of the MD5 hash
+	 */
+	private static int hash(String value) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+			return (digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8 | (digest[3] & 0xff);
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform has to support MD5
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("usage: ClusterRouter port secretFile node...");
+			return;
+		}
+		ClusterAuth auth = new ClusterAuth(
+				ClusterAuth.loadOrCreateKey(Paths.get(args[1]), ClusterAuth::generateSecret));
+		List<InetSocketAddress> nodes = new ArrayList<InetSocketAddress>();
+		for (int i = 2; i < args.length; i++) {
+			nodes.add(RemoteEndpoint.parseAddress(args[i]));
+		}
+		new ClusterRouter(Integer.parseInt(args[0]), nodes, auth).run();
+	}
+}
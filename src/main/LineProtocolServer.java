@@ -0,0 +1,132 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Accepts TCP connections and answers the request lines of the cluster protocol
+ * (see RemoteEndpoint). Every connection is served by its own thread.
+ *
+ * The server only listens on the configured bind address (system property
+ * cluster.bind), by default on the loopback interface. Request lines that are
+ * authenticated with the cluster secret (see ClusterAuth) are marked as
+ * authenticated for the subclass.
+ */
+public abstract class LineProtocolServer implements Runnable {
+
+	private static org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager
+			.getLogger(LineProtocolServer.class);
+
+	private final ServerSocket serverSocket;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final ClusterAuth auth;
+
+	/**
+	 * Binds the server to the given port of the configured bind address
+	 *
+	 * @param port
+	 * @param auth checks authenticated requests
+	 * @throws IOException
+	 */
+	protected LineProtocolServer(int port, ClusterAuth auth) throws IOException {
+		this.serverSocket = new ServerSocket(port, 50, bindAddress());
+		this.auth = auth;
+	}
+
+	/**
+	 * Address the servers of the cluster listen on and announce to others. Set
+	 * with the system property cluster.bind, default is the loopback interface.
+	 *
+	 * @return InetAddress
+	 * @throws UnknownHostException
+	 */
+	public static InetAddress bindAddress() throws UnknownHostException {
+		String bind = System.getProperty("cluster.bind");
+		return bind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind);
+	}
+
+	/**
+	 * Answers a request
+	 *
+	 * @param request       command followed by its arguments
+	 * @param authenticated shows if the request was authenticated with the
+	 *                      cluster secret
+	 * @return String : response line
+	 */
+	protected abstract String process(String[] request, boolean authenticated);
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	@Override
+	public void run() {
+		logger.info(getClass().getSimpleName() + " listening on port " + getPort());
+		try {
+			while (!serverSocket.isClosed()) {
+				Socket socket = serverSocket.accept();
+				executor.submit(() -> handle(socket));
+			}
+		} catch (IOException e) {
+			if (!serverSocket.isClosed()) {
+				logger.error(getClass().getSimpleName() + " stopped", e);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Stops accepting connections
+	 */
+	public void close() {
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			logger.warn("Server socket could not be closed", e);
+		}
+	}
+
+	/**
+	 * Processes the requests of one connection until it gets closed
+	 */
+	private void handle(Socket socket) {
+		try (Socket s = socket;
+				BufferedReader in = new BufferedReader(
+						new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+				BufferedWriter out = new BufferedWriter(
+						new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+			s.setTcpNoDelay(true);
+			String request;
+			while ((request = in.readLine()) != null) {
+				String response;
+				try {
+					if (request.startsWith("AUTH ")) {
+						String verified = auth.verify(request);
+						response = verified == null ? "ERROR" : process(verified.split(" "), true);
+					} else {
+						response = process(request.split(" "), false);
+					}
+				} catch (RuntimeException e) {
+					logger.error("Request could not be processed", e);
+					response = "ERROR";
+				}
+				out.write(response);
+				out.newLine();
+				out.flush();
+			}
+		} catch (IOException e) {
+			logger.debug("Connection closed", e);
+		}
+	}
+}
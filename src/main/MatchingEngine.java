@@ -0,0 +1,435 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+import main.Message.MessageType;
+
+/**
+ * Matches accepted buy and sell orders of the same stock against each other.
+ *
+ * Stocks are sharded over a fixed number of worker threads by their ISIN. Every
+ * worker is the only thread that reads or changes the order books of its
+ * stocks, so the books need no locking. Orders are handed over to the workers
+ * in preallocated order objects that are returned to a pool after they have been
+ * processed.
+ *
+ * Orders do not carry a limit price, so every order is matched immediately
+ * against the resting orders of the other side in time priority (oldest first).
+ * The remaining amount of an order that could not be filled completely rests in
+ * the book until orders of the other side arrive. A book is dropped as soon as
+ * both of its sides are empty, so the memory of the engine follows the resting
+ * orders, not the number of stocks ever ordered.
+ *
+ * Fills are collected in a queue per shard, the worker only appends to it. The
+ * server collects them with drainFills, so formatting and delivering fills does
+ * not happen on the worker threads.
+ *
+ * The resting orders of a client can be cancelled, e.g. when the client is
+ * handed over to another server. The cancellation is passed to the workers
+ * like an order, so all orders submitted before are processed first.
+ */
+public class MatchingEngine {
+
+	private static org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager
+			.getLogger(MatchingEngine.class);
+
+	// number of preallocated orders per shard, limits the orders in flight
+	private static final int ORDERS_PER_SHARD = 4096;
+
+	/**
+	 * (Partial) fill of the order of a client
+	 */
+	public static class Fill {
+		private final int clientId;
+		private final MessageType type;
+		private final String stockISIN;
+		private final long amount;
+		private final long createdNanos;
+
+		Fill(int clientId, MessageType type, String stockISIN, long amount) {
+			this.clientId = clientId;
+			this.type = type;
+			this.stockISIN = stockISIN;
+			this.amount = amount;
+			this.createdNanos = System.nanoTime();
+		}
+
+		/**
+		 * @return int : client whose order was (partially) filled
+		 */
+		public int getClientId() {
+			return clientId;
+		}
+
+		/**
+		 * @return MessageType : BuyStock or SellStock, side of the order of the
+		 *         client
+		 */
+		public MessageType getType() {
+			return type;
+		}
+
+		public String getStockISIN() {
+			return stockISIN;
+		}
+
+		/**
+		 * @return long : filled amount
+		 */
+		public long getAmount() {
+			return amount;
+		}
+
+		/**
+		 * @return long : System.nanoTime() when the worker created the fill
+		 */
+		public long getCreatedNanos() {
+			return createdNanos;
+		}
+	}
+
+	/**
+	 * Remaining amount of an order of a client that rests in a book
+	 */
+	public static class RestingOrder {
+		private final int clientId;
+		private final MessageType type;
+		private final String stockISIN;
+		private final long amount;
+
+		public RestingOrder(int clientId, MessageType type, String stockISIN, long amount) {
+			this.clientId = clientId;
+			this.type = type;
+			this.stockISIN = stockISIN;
+			this.amount = amount;
+		}
+
+		public int getClientId() {
+			return clientId;
+		}
+
+		/**
+		 * @return MessageType : BuyStock or SellStock
+		 */
+		public MessageType getType() {
+			return type;
+		}
+
+		public String getStockISIN() {
+			return stockISIN;
+		}
+
+		/**
+		 * @return long : amount that was not filled yet
+		 */
+		public long getAmount() {
+			return amount;
+		}
+	}
+
+	/**
+	 * Preallocated order that is passed from the submitting thread to the worker
+	 */
+	private static class Order {
+		int clientId;
+		boolean buy;
+		String stockISIN;
+		long amount;
+		// set if the resting orders of the client are to be cancelled instead
+		CompletableFuture<List<RestingOrder>> cancelled;
+	}
+
+	/**
+	 * Resting orders of one side of a book in time priority. Kept in primitive
+	 * ring buffers that grow when they are full.
+	 */
+	private static class Side {
+		int[] clientIds = new int[16];
+		long[] amounts = new long[16];
+		int head;
+		int size;
+
+		void add(int clientId, long amount) {
+			if (size == clientIds.length) {
+				grow();
+			}
+			int i = (head + size) & (clientIds.length - 1);
+			clientIds[i] = clientId;
+			amounts[i] = amount;
+			size++;
+		}
+
+		private void grow() {
+			int[] newClientIds = new int[clientIds.length * 2];
+			long[] newAmounts = new long[amounts.length * 2];
+			for (int j = 0; j < size; j++) {
+				int i = (head + j) & (clientIds.length - 1);
+				newClientIds[j] = clientIds[i];
+				newAmounts[j] = amounts[i];
+			}
+			clientIds = newClientIds;
+			amounts = newAmounts;
+			head = 0;
+		}
+
+		void removeFirst() {
+			head = (head + 1) & (clientIds.length - 1);
+			size--;
+		}
+
+		/**
+		 * Removes all orders of the client, the other orders keep their time
+		 * priority
+		 */
+		void removeClient(int clientId, MessageType type, String stockISIN, List<RestingOrder> removed) {
+			int mask = clientIds.length - 1;
+			int kept = 0;
+			for (int j = 0; j < size; j++) {
+				int i = (head + j) & mask;
+				if (clientIds[i] == clientId) {
+					removed.add(new RestingOrder(clientId, type, stockISIN, amounts[i]));
+				} else {
+					int k = (head + kept) & mask;
+					clientIds[k] = clientIds[i];
+					amounts[k] = amounts[i];
+					kept++;
+				}
+			}
+			size = kept;
+		}
+	}
+
+	/**
+	 * Order book of one stock
+	 */
+	private static class Book {
+		final Side bids = new Side();
+		final Side asks = new Side();
+
+		boolean isEmpty() {
+			return bids.size == 0 && asks.size == 0;
+		}
+	}
+
+	/**
+	 * Worker thread that owns the books of its stocks
+	 */
+	private class Shard extends Thread {
+		final BlockingQueue<Order> inbox = new ArrayBlockingQueue<Order>(ORDERS_PER_SHARD);
+		final BlockingQueue<Order> pool = new ArrayBlockingQueue<Order>(ORDERS_PER_SHARD);
+		final HashMap<String, Book> books = new HashMap<String, Book>();
+		// fills created by this shard that were not yet drained
+		final ConcurrentLinkedQueue<Fill> fills = new ConcurrentLinkedQueue<Fill>();
+		// number of books, only written by the worker
+		volatile int bookCount;
+
+		Shard(int number) {
+			super("matching-" + number);
+			setDaemon(true);
+			for (int i = 0; i < ORDERS_PER_SHARD; i++) {
+				pool.add(new Order());
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					Order order = inbox.take();
+					try {
+						if (order.cancelled != null) {
+							order.cancelled.complete(cancel(order.clientId));
+						} else {
+							match(order);
+						}
+					} catch (RuntimeException e) {
+						logger.error("matching of order for " + order.stockISIN + " failed", e);
+						if (order.cancelled != null) {
+							order.cancelled.completeExceptionally(e);
+						}
+					}
+					order.stockISIN = null;
+					order.cancelled = null;
+					pool.add(order);
+				}
+			} catch (InterruptedException e) {
+				// engine is shut down
+			}
+		}
+
+		private void match(Order order) {
+			Book book = books.get(order.stockISIN);
+			if (book == null) {
+				book = new Book();
+				books.put(order.stockISIN, book);
+				bookCount = books.size();
+			}
+			Side opposite = order.buy ? book.asks : book.bids;
+			MessageType type = order.buy ? MessageType.BuyStock : MessageType.SellStock;
+			MessageType oppositeType = order.buy ? MessageType.SellStock : MessageType.BuyStock;
+			long remaining = order.amount;
+
+			while (remaining > 0 && opposite.size > 0) {
+				int i = opposite.head;
+				long filled = Math.min(remaining, opposite.amounts[i]);
+				remaining -= filled;
+				opposite.amounts[i] -= filled;
+
+				fills.add(new Fill(order.clientId, type, order.stockISIN, filled));
+				fills.add(new Fill(opposite.clientIds[i], oppositeType, order.stockISIN, filled));
+
+				if (opposite.amounts[i] == 0) {
+					opposite.removeFirst();
+				}
+			}
+			if (remaining > 0) {
+				(order.buy ? book.bids : book.asks).add(order.clientId, remaining);
+			} else if (book.isEmpty()) {
+				books.remove(order.stockISIN);
+				bookCount = books.size();
+			}
+		}
+
+		private List<RestingOrder> cancel(int clientId) {
+			List<RestingOrder> removed = new ArrayList<RestingOrder>();
+			Iterator<Map.Entry<String, Book>> it = books.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<String, Book> entry = it.next();
+				Book book = entry.getValue();
+				book.bids.removeClient(clientId, MessageType.BuyStock, entry.getKey(), removed);
+				book.asks.removeClient(clientId, MessageType.SellStock, entry.getKey(), removed);
+				if (book.isEmpty()) {
+					it.remove();
+				}
+			}
+			bookCount = books.size();
+			return removed;
+		}
+	}
+
+	private final Shard[] shards;
+
+	/**
+	 * Creates and starts the engine with one shard per available processor
+	 */
+	public MatchingEngine() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates and starts the engine
+	 *
+	 * @param shards number of worker threads
+	 */
+	public MatchingEngine(int shards) {
+		this.shards = new Shard[Math.max(1, shards)];
+		for (int i = 0; i < this.shards.length; i++) {
+			this.shards[i] = new Shard(i);
+			this.shards[i].start();
+		}
+	}
+
+	/**
+	 * Hands an accepted order over to the shard of its stock. Blocks if the shard
+	 * has no free preallocated orders left.
+	 *
+	 * @param clientId
+	 * @param type      BuyStock or SellStock, other types are ignored
+	 * @param stockISIN
+	 * @param amount
+	 * @throws InterruptedException
+	 */
+	public void submit(int clientId, MessageType type, String stockISIN, long amount) throws InterruptedException {
+		if (stockISIN == null || amount <= 0 || (type != MessageType.BuyStock && type != MessageType.SellStock)) {
+			return;
+		}
+		Shard shard = shards[Math.floorMod(stockISIN.hashCode(), shards.length)];
+		Order order = shard.pool.take();
+		order.clientId = clientId;
+		order.buy = type == MessageType.BuyStock;
+		order.stockISIN = stockISIN;
+		order.amount = amount;
+		shard.inbox.put(order);
+	}
+
+	/**
+	 * Removes all resting orders of the client from the books. Orders submitted
+	 * before are processed first, so once this method returns no further fills
+	 * are created for the client.
+	 *
+	 * @param clientId
+	 * @return List<RestingOrder> : cancelled orders with their remaining amount
+	 * @throws InterruptedException
+	 */
+	public List<RestingOrder> cancelOrders(int clientId) throws InterruptedException {
+		List<CompletableFuture<List<RestingOrder>>> results = new ArrayList<CompletableFuture<List<RestingOrder>>>();
+		for (Shard shard : shards) {
+			Order order = shard.pool.take();
+			order.clientId = clientId;
+			order.cancelled = new CompletableFuture<List<RestingOrder>>();
+			results.add(order.cancelled);
+			shard.inbox.put(order);
+		}
+		List<RestingOrder> cancelled = new ArrayList<RestingOrder>();
+		for (CompletableFuture<List<RestingOrder>> result : results) {
+			try {
+				cancelled.addAll(result.get());
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("orders of client " + clientId + " could not be cancelled",
+						e.getCause());
+			}
+		}
+		return cancelled;
+	}
+
+	/**
+	 * Removes all fills created so far and passes them to the consumer. Fills of
+	 * the same stock are passed in the order they were created.
+	 *
+	 * @param consumer
+	 * @return int : number of fills
+	 */
+	public int drainFills(Consumer<Fill> consumer) {
+		int drained = 0;
+		for (Shard shard : shards) {
+			Fill fill;
+			while ((fill = shard.fills.poll()) != null) {
+				consumer.accept(fill);
+				drained++;
+			}
+		}
+		return drained;
+	}
+
+	/**
+	 * Number of stocks with resting orders
+	 *
+	 * @return int
+	 */
+	int getBookCount() {
+		int count = 0;
+		for (Shard shard : shards) {
+			count += shard.bookCount;
+		}
+		return count;
+	}
+
+	/**
+	 * Stops all worker threads. Orders that were not processed yet are dropped.
+	 */
+	public void shutdown() {
+		for (Shard shard : shards) {
+			shard.interrupt();
+		}
+	}
+}
@@ -14,6 +14,10 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 @JsonAutoDetect(fieldVisibility = Visibility.ANY)
 public class Message {
 
+	// shared by all message (de)serialization, keeps the introspected classes
+	// cached. ObjectMapper is thread-safe
+	static final ObjectMapper mapper = new ObjectMapper();
+
 	// Shows which party sends the message
 	enum SenderType {
 		Server, Client
@@ -21,7 +25,7 @@ public class Message {
 
 	// Shows different kinds of messages that can be used
 	enum MessageType {
-		BuyStock, SellStock, ServerResponse, GetOrders, ServerSendOrders
+		BuyStock, SellStock, ServerResponse, GetOrders, ServerSendOrders, ServerSendFill
 	}
 
 	private SenderType senderType;
@@ -65,8 +69,6 @@ public class Message {
 
 	public static String createMessage(SenderType senderType, MessageType messageType,
 			HashMap<String, String> messageParameters) throws JsonProcessingException {
-		ObjectMapper mapper = new ObjectMapper();
-
 		return mapper.writeValueAsString(new Message(senderType, messageType, messageParameters));
 	}
 
@@ -85,6 +87,17 @@ public class Message {
 		return createMessage(SenderType.Server, MessageType.ServerSendOrders, messageParameters);
 	}
 	
+	public static String createServerSendFillMessage(MessageType orderType, String stockISIN, long amount)
+			throws JsonProcessingException {
+		HashMap<String, String> messageParameters = new HashMap<String, String>();
+
+		messageParameters.put("orderType", orderType.toString());
+		messageParameters.put("stockISIN", stockISIN);
+		messageParameters.put("amount", String.valueOf(amount));
+
+		return createMessage(SenderType.Server, MessageType.ServerSendFill, messageParameters);
+	}
+
 	public static String createGetOrdersMessage() throws JsonProcessingException {
 		HashMap<String, String> messageParameters = new HashMap<String, String>();
 
@@ -0,0 +1,40 @@
+package main;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Party that clients interact with: either a local server or a remote server
+ * node/router of a cluster.
+ */
+public interface MessageEndpoint {
+
+	/**
+	 * Registers the public key of a client for later signature validation
+	 *
+	 * @param key publicKey of client
+	 * @return int : client ID, -1 if the client could not be registered
+	 */
+	int registerClient(byte[] key);
+
+	/**
+	 * Processes a signed message of a client
+	 *
+	 * @param message: signed message of the client
+	 * @return String : response to the client
+	 */
+	String acceptMessage(String message);
+
+	/**
+	 * Processes a signed message of a client without waiting for the response.
+	 * The default answers on the calling thread, which suits endpoints that do
+	 * not wait for I/O (e.g. a local server). Remote endpoints send the message
+	 * and complete the future once the response has arrived.
+	 *
+	 * @param message: signed message of the client
+	 * @return CompletableFuture<String> : completes with the response to the
+	 *         client
+	 */
+	default CompletableFuture<String> acceptMessageAsync(String message) {
+		return CompletableFuture.completedFuture(acceptMessage(message));
+	}
+}
@@ -0,0 +1,177 @@
+package main;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+
+/**
+ * Reactive connection of a client to a server.
+ *
+ * Subscribes to a stream of client messages and publishes the response of the
+ * server for every message. Every message yields exactly one response, so the
+ * demand of the subscriber of the responses is passed on to the publisher of
+ * the messages unchanged: no more messages are in flight than responses were
+ * requested. Messages are sent with MessageEndpoint.acceptMessageAsync and the
+ * response is published once its future completes, so no thread waits for a
+ * response: a client can have many messages in flight without a thread for
+ * every request. Responses are published in the order in which the server
+ * answers them.
+ *
+ * Only one subscriber of the responses is supported.
+ */
+public class MessageStream implements Flow.Processor<String, OrderResponse> {
+
+	private final MessageEndpoint server;
+	// prepares a message before it is sent, e.g. signs it
+	private final Function<String, String> prepare;
+
+	// all following fields are guarded by this
+	private Flow.Subscription upstream;
+	private Flow.Subscriber<? super OrderResponse> downstream;
+	// demand requested before the message publisher subscribed
+	private long pendingDemand;
+	private int inFlight;
+	private boolean upstreamDone;
+	private Throwable upstreamError;
+	private boolean finished;
+
+	/**
+	 * @param server  server that answers the messages
+	 * @param prepare applied to every message before it is sent
+	 */
+	public MessageStream(MessageEndpoint server, Function<String, String> prepare) {
+		this.server = server;
+		this.prepare = prepare;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super OrderResponse> subscriber) {
+		synchronized (this) {
+			if (downstream == null) {
+				downstream = subscriber;
+				subscriber.onSubscribe(new ResponseSubscription());
+				finishIfDone();
+				return;
+			}
+		}
+		subscriber.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(long n) {
+			}
+
+			@Override
+			public void cancel() {
+			}
+		});
+		subscriber.onError(new IllegalStateException("message stream supports only one subscriber"));
+	}
+
+	@Override
+	public synchronized void onSubscribe(Flow.Subscription subscription) {
+		if (upstream != null) {
+			subscription.cancel();
+			return;
+		}
+		upstream = subscription;
+		if (finished) {
+			subscription.cancel();
+		} else if (pendingDemand > 0) {
+			long n = pendingDemand;
+			pendingDemand = 0;
+			subscription.request(n);
+		}
+	}
+
+	@Override
+	public void onNext(String message) {
+		synchronized (this) {
+			if (finished) {
+				return;
+			}
+			inFlight++;
+		}
+		CompletableFuture<String> response;
+		try {
+			response = server.acceptMessageAsync(prepare.apply(message));
+		} catch (RuntimeException e) {
+			response = CompletableFuture.failedFuture(e);
+		}
+		response.whenComplete((answer, error) -> deliver(
+				new OrderResponse(message, error == null ? answer : new String("{\"Failure\"}"))));
+	}
+
+	@Override
+	public synchronized void onError(Throwable throwable) {
+		upstreamDone = true;
+		upstreamError = throwable;
+		finishIfDone();
+	}
+
+	@Override
+	public synchronized void onComplete() {
+		upstreamDone = true;
+		finishIfDone();
+	}
+
+	/**
+	 * Publishes a response, calls of the subscriber are serialized
+	 */
+	private synchronized void deliver(OrderResponse response) {
+		inFlight--;
+		if (!finished) {
+			downstream.onNext(response);
+		}
+		finishIfDone();
+	}
+
+	/**
+	 * Completes the responses once all messages are answered
+	 */
+	private void finishIfDone() {
+		if (finished || !upstreamDone || inFlight > 0 || downstream == null) {
+			return;
+		}
+		finished = true;
+		if (upstreamError != null) {
+			downstream.onError(upstreamError);
+		} else {
+			downstream.onComplete();
+		}
+	}
+
+	/**
+	 * Subscription of the subscriber of the responses
+	 */
+	private class ResponseSubscription implements Flow.Subscription {
+
+		@Override
+		public void request(long n) {
+			synchronized (MessageStream.this) {
+				if (finished) {
+					return;
+				}
+				if (n <= 0) {
+					finished = true;
+					if (upstream != null) {
+						upstream.cancel();
+					}
+					downstream.onError(new IllegalArgumentException("non-positive request " + n));
+				} else if (upstream != null) {
+					upstream.request(n);
+				} else {
+					pendingDemand = pendingDemand + n < 0 ? Long.MAX_VALUE : pendingDemand + n;
+				}
+			}
+		}
+
+		@Override
+		public void cancel() {
+			synchronized (MessageStream.this) {
+				finished = true;
+				if (upstream != null) {
+					upstream.cancel();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,310 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import main.Message.MessageType;
+
+/**
+ * In-memory index over all accepted buy/sell orders of all clients.
+ *
+ * Orders of a client are only stored encrypted in the queue of the client, so a
+ * view across clients (e.g. total buy/sell volume of a stock) would need to
+ * decrypt every queue. This index gets updated whenever an order was stored and
+ * aggregates the ordered amount of every stock ISIN.
+ *
+ * Every ISIN is interned to an int code once. The counters are kept in
+ * open-addressing tables (int keys, long counters) which are split into stripes
+ * so that concurrent updates for different ISINs do not block each other.
+ *
+ * An order that would let a counter overflow is rejected, so the published
+ * volumes can never wrap around to negative values.
+ */
+public class OrderBookIndex {
+
+	// number of stripes, must be a power of two
+	private static final int STRIPES = 16;
+
+	// initial capacity of the table of every stripe, must be a power of two
+	private static final int INITIAL_CAPACITY = 64;
+
+	// marks a free slot in a table
+	private static final int FREE = -1;
+
+	// ISIN to interned code
+	private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<String, Integer>();
+
+	// interned code to ISIN, index is the code
+	private final List<String> isins = Collections.synchronizedList(new ArrayList<String>());
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+
+	/**
+	 * Aggregated buy/sell amount of one stock
+	 */
+	public static class IsinVolume {
+		private final String stockISIN;
+		private final long buyAmount;
+		private final long sellAmount;
+
+		IsinVolume(String stockISIN, long buyAmount, long sellAmount) {
+			this.stockISIN = stockISIN;
+			this.buyAmount = buyAmount;
+			this.sellAmount = sellAmount;
+		}
+
+		public String getStockISIN() {
+			return stockISIN;
+		}
+
+		public long getBuyAmount() {
+			return buyAmount;
+		}
+
+		public long getSellAmount() {
+			return sellAmount;
+		}
+
+		/**
+		 * @return long : buy + sell amount, Long.MAX_VALUE if the sum does not fit
+		 *         into a long
+		 */
+		public long getTotalAmount() {
+			return total(buyAmount, sellAmount);
+		}
+
+		@Override
+		public String toString() {
+			return stockISIN + " buy=" + buyAmount + " sell=" + sellAmount;
+		}
+	}
+
+	/**
+	 * Open-addressing table (linear probing) from interned ISIN code to buy/sell
+	 * counters. All accesses are guarded by the monitor of the stripe.
+	 */
+	private static class Stripe {
+		int[] keys;
+		long[] buy;
+		long[] sell;
+		int size;
+
+		Stripe() {
+			allocate(INITIAL_CAPACITY);
+		}
+
+		private void allocate(int capacity) {
+			keys = new int[capacity];
+			buy = new long[capacity];
+			sell = new long[capacity];
+			Arrays.fill(keys, FREE);
+		}
+
+		/**
+		 * Returns the slot of the given code or -1 if the code is not in the table
+		 */
+		int find(int code) {
+			int mask = keys.length - 1;
+			for (int i = mix(code) & mask;; i = (i + 1) & mask) {
+				if (keys[i] == code) {
+					return i;
+				}
+				if (keys[i] == FREE) {
+					return -1;
+				}
+			}
+		}
+
+		/**
+		 * Returns the slot of the given code, the code gets inserted if necessary
+		 */
+		int slot(int code) {
+			// keep load factor below 0.5
+			if ((size + 1) * 2 > keys.length) {
+				grow();
+			}
+			int mask = keys.length - 1;
+			int i = mix(code) & mask;
+			while (keys[i] != FREE) {
+				if (keys[i] == code) {
+					return i;
+				}
+				i = (i + 1) & mask;
+			}
+			keys[i] = code;
+			size++;
+			return i;
+		}
+
+		private void grow() {
+			int[] oldKeys = keys;
+			long[] oldBuy = buy;
+			long[] oldSell = sell;
+			allocate(oldKeys.length * 2);
+			int mask = keys.length - 1;
+			for (int j = 0; j < oldKeys.length; j++) {
+				if (oldKeys[j] != FREE) {
+					int i = mix(oldKeys[j]) & mask;
+					while (keys[i] != FREE) {
+						i = (i + 1) & mask;
+					}
+					keys[i] = oldKeys[j];
+					buy[i] = oldBuy[j];
+					sell[i] = oldSell[j];
+				}
+			}
+		}
+	}
+
+	public OrderBookIndex() {
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Adds the amount of an accepted order to the volume of its stock
+	 *
+	 * @param type       BuyStock or SellStock, other types are ignored
+	 * @param stockISIN
+	 * @param amount     only positive amounts are added
+	 * @return boolean : shows if the amount was added, false if the order is
+	 *         ignored or would let the volume of the stock overflow
+	 */
+	public boolean addOrder(MessageType type, String stockISIN, long amount) {
+		if (stockISIN == null || amount <= 0 || (type != MessageType.BuyStock && type != MessageType.SellStock)) {
+			return false;
+		}
+		int code = intern(stockISIN);
+		Stripe stripe = stripeOf(code);
+		synchronized (stripe) {
+			int i = stripe.slot(code);
+			try {
+				if (type == MessageType.BuyStock) {
+					stripe.buy[i] = Math.addExact(stripe.buy[i], amount);
+				} else {
+					stripe.sell[i] = Math.addExact(stripe.sell[i], amount);
+				}
+			} catch (ArithmeticException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Total amount of all buy orders of a stock
+	 *
+	 * @param stockISIN
+	 * @return long : amount, 0 if stock was never ordered
+	 */
+	public long getBuyAmount(String stockISIN) {
+		return getVolume(stockISIN).getBuyAmount();
+	}
+
+	/**
+	 * Total amount of all sell orders of a stock
+	 *
+	 * @param stockISIN
+	 * @return long : amount, 0 if stock was never ordered
+	 */
+	public long getSellAmount(String stockISIN) {
+		return getVolume(stockISIN).getSellAmount();
+	}
+
+	/**
+	 * Aggregated buy/sell amount of a stock
+	 *
+	 * @param stockISIN
+	 * @return IsinVolume : volume, amounts are 0 if stock was never ordered
+	 */
+	public IsinVolume getVolume(String stockISIN) {
+		Integer code = codes.get(stockISIN);
+		if (code == null) {
+			return new IsinVolume(stockISIN, 0, 0);
+		}
+		Stripe stripe = stripeOf(code);
+		synchronized (stripe) {
+			int i = stripe.find(code);
+			if (i == -1) {
+				return new IsinVolume(stockISIN, 0, 0);
+			}
+			return new IsinVolume(stockISIN, stripe.buy[i], stripe.sell[i]);
+		}
+	}
+
+	/**
+	 * Stocks with the highest total (buy + sell) amount
+	 *
+	 * @param n maximum number of returned stocks
+	 * @return List<IsinVolume> : stocks ordered by descending total amount
+	 */
+	public List<IsinVolume> getTopVolumes(int n) {
+		if (n <= 0) {
+			return new ArrayList<IsinVolume>();
+		}
+		Comparator<IsinVolume> byTotal = Comparator.comparingLong(IsinVolume::getTotalAmount);
+		// min-heap that keeps the n largest entries seen so far
+		PriorityQueue<IsinVolume> top = new PriorityQueue<IsinVolume>(n + 1, byTotal);
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				for (int i = 0; i < stripe.keys.length; i++) {
+					if (stripe.keys[i] == FREE) {
+						continue;
+					}
+					long total = total(stripe.buy[i], stripe.sell[i]);
+					if (top.size() == n && top.peek().getTotalAmount() >= total) {
+						continue;
+					}
+					top.add(new IsinVolume(isins.get(stripe.keys[i]), stripe.buy[i], stripe.sell[i]));
+					if (top.size() > n) {
+						top.poll();
+					}
+				}
+			}
+		}
+		List<IsinVolume> result = new ArrayList<IsinVolume>(top);
+		result.sort(byTotal.reversed());
+		return result;
+	}
+
+	/**
+	 * Returns the code of the ISIN, a new code is assigned on first use
+	 */
+	private int intern(String stockISIN) {
+		Integer code = codes.get(stockISIN);
+		if (code != null) {
+			return code;
+		}
+		return codes.computeIfAbsent(stockISIN, isin -> {
+			synchronized (isins) {
+				isins.add(isin);
+				return isins.size() - 1;
+			}
+		});
+	}
+
+	private Stripe stripeOf(int code) {
+		return stripes[mix(code) >>> 28 & (STRIPES - 1)];
+	}
+
+	/**
+	 * Sum of buy and sell amount, saturated at Long.MAX_VALUE
+	 */
+	private static long total(long buyAmount, long sellAmount) {
+		long sum = buyAmount + sellAmount;
+		return sum < 0 ? Long.MAX_VALUE : sum;
+	}
+
+	/**
+	 * Spreads consecutive codes over the table
+	 */
+	private static int mix(int code) {
+		return code * 0x9E3779B9;
+	}
+}
@@ -0,0 +1,63 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+/**
+ * Response of the server to one message of a client, as emitted by a
+ * MessageStream.
+ */
+public class OrderResponse {
+
+	private final String message;
+	private final String response;
+
+	public OrderResponse(String message, String response) {
+		this.message = message;
+		this.response = response;
+	}
+
+	/**
+	 * Getter for the message of the client
+	 *
+	 * @return String : message the response belongs to
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Getter for the plain response of the server
+	 *
+	 * @return String : response, one server message per line
+	 */
+	public String getResponse() {
+		return response;
+	}
+
+	/**
+	 * Parses the server messages contained in the response (e.g. ServerResponse
+	 * or the ServerSendOrders/ServerSendFill messages answering GetOrders). Lines
+	 * that are no server messages (e.g. failures) are skipped.
+	 *
+	 * @return List<Message> : server messages
+	 */
+	public List<Message> getResponseMessages() {
+		List<Message> messages = new ArrayList<Message>();
+		for (String line : response.split("\n")) {
+			try {
+				messages.add(Message.mapper.readValue(line, Message.class));
+			} catch (JsonProcessingException e) {
+				// line is no server message
+			}
+		}
+		return messages;
+	}
+
+	@Override
+	public String toString() {
+		return response;
+	}
+}
@@ -0,0 +1,373 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import org.apache.commons.collections4.queue.CircularFifoQueue;
+
+/**
+ * Stores the encrypted orders of the clients.
+ *
+ * The queue of a client is only allocated with its first order. It starts small
+ * and grows up to the configured capacity, after that the oldest orders get
+ * replaced. Queues of clients that were not accessed for longer than the
+ * configured time to live are moved to a cold tier on the local disk and are
+ * loaded again on the next access of the client. That way the heap only holds
+ * the orders of active clients.
+ *
+ * Every client has its own lock, which is only held while the store works on
+ * the queue of that client. Moving a queue to disk or loading it back only
+ * blocks the client it belongs to, never the other clients. The cold tier is
+ * deleted on shutdown or when the JVM exits.
+ *
+ * The server also keeps the pending fills of the clients in a store, with a
+ * capacity of Integer.MAX_VALUE nothing is ever replaced.
+ */
+public class OrderStore {
+
+	private static org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager
+			.getLogger(OrderStore.class);
+
+	// size of a queue when it gets allocated
+	private static final int INITIAL_CAPACITY = 8;
+
+	// maximum number of orders stored per client
+	private final int capacity;
+
+	// time after which queues of idle clients are moved to the cold tier
+	private final long ttlMillis;
+
+	/**
+	 * Queue of a client in the hot tier. Only exists while the queue is on the
+	 * heap or while an operation on the client is running.
+	 */
+	private static class Slot {
+		final ReentrantLock lock = new ReentrantLock();
+		// guarded by lock, null if the client has no orders on the heap
+		CircularFifoQueue<byte[]> queue;
+		// set once the slot was taken out of the map, guarded by lock
+		boolean removed;
+		volatile long lastAccess = System.currentTimeMillis();
+	}
+
+	// clients with a queue in the hot tier
+	private final ConcurrentHashMap<Integer, Slot> hot = new ConcurrentHashMap<Integer, Slot>();
+
+	// directory of the cold tier, one file per client. Created with the first
+	// eviction
+	private volatile Path coldDirectory;
+
+	// deletes the cold tier if the JVM exits without shutdown
+	private Thread coldDirectoryCleaner;
+
+	private final ScheduledExecutorService evictor;
+
+	/**
+	 * Creates the store and starts the periodic eviction of idle queues
+	 *
+	 * @param capacity  maximum number of orders stored per client
+	 * @param ttlMillis time after which queues of idle clients are moved to disk
+	 */
+	public OrderStore(int capacity, long ttlMillis) {
+		this.capacity = capacity;
+		this.ttlMillis = ttlMillis;
+
+		this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "order-store-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1, ttlMillis / 2);
+		evictor.scheduleAtFixedRate(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Adds an encrypted order to the queue of the client. The queue is allocated
+	 * or loaded from the cold tier if necessary.
+	 *
+	 * @param clientId
+	 * @param encryptedOrder
+	 * @return boolean : shows if the order could be stored, false if the queue
+	 *         of the client could not be loaded from disk
+	 */
+	public boolean add(int clientId, byte[] encryptedOrder) {
+		Slot slot = acquire(clientId);
+		try {
+			load(clientId, slot);
+			CircularFifoQueue<byte[]> q = slot.queue;
+			if (q == null) {
+				q = new CircularFifoQueue<byte[]>(Math.min(INITIAL_CAPACITY, capacity));
+			} else if (q.isAtFullCapacity() && q.maxSize() < capacity) {
+				CircularFifoQueue<byte[]> larger = new CircularFifoQueue<byte[]>(
+						(int) Math.min(q.maxSize() * 2L, capacity));
+				larger.addAll(q);
+				q = larger;
+			}
+			slot.queue = q;
+			return q.add(encryptedOrder);
+		} catch (IOException e) {
+			// the orders on disk stay there, the next access tries again
+			logger.error("queue of client " + clientId + " could not be loaded from disk", e);
+			return false;
+		} finally {
+			release(clientId, slot);
+		}
+	}
+
+	/**
+	 * Returns a copy of the queue of the client, so it can be read while further
+	 * orders are added. The queue is loaded from the cold tier if necessary.
+	 *
+	 * @param clientId
+	 * @return CircularFifoQueue<byte[]> : copy of the queue, null if the client
+	 *         has no orders or they could not be loaded from disk
+	 */
+	public CircularFifoQueue<byte[]> get(int clientId) {
+		Slot slot = acquire(clientId);
+		try {
+			load(clientId, slot);
+			if (slot.queue == null) {
+				return null;
+			}
+			CircularFifoQueue<byte[]> copy = new CircularFifoQueue<byte[]>(slot.queue.maxSize());
+			copy.addAll(slot.queue);
+			return copy;
+		} catch (IOException e) {
+			logger.error("queue of client " + clientId + " could not be loaded from disk", e);
+			return null;
+		} finally {
+			release(clientId, slot);
+		}
+	}
+
+	/**
+	 * Removes the queue of the client from both tiers, e.g. when the client is
+	 * handed over to another server
+	 *
+	 * @param clientId
+	 * @return CircularFifoQueue<byte[]> : removed queue, null if the client has no
+	 *         orders or they could not be loaded from disk
+	 */
+	public CircularFifoQueue<byte[]> remove(int clientId) {
+		Slot slot = acquire(clientId);
+		try {
+			load(clientId, slot);
+			CircularFifoQueue<byte[]> q = slot.queue;
+			slot.queue = null;
+			return q;
+		} catch (IOException e) {
+			logger.error("queue of client " + clientId + " could not be loaded from disk", e);
+			return null;
+		} finally {
+			release(clientId, slot);
+		}
+	}
+
+	/**
+	 * Sets the queue of the client, e.g. when the client is handed over from
+	 * another server
+	 *
+	 * @param clientId
+	 * @param q
+	 */
+	public void put(int clientId, CircularFifoQueue<byte[]> q) {
+		Slot slot = acquire(clientId);
+		try {
+			Path cold = coldDirectory;
+			if (cold != null) {
+				Files.deleteIfExists(coldFile(cold, clientId));
+			}
+			slot.queue = q;
+		} catch (IOException e) {
+			logger.error("cold queue of client " + clientId + " could not be replaced", e);
+		} finally {
+			release(clientId, slot);
+		}
+	}
+
+	/**
+	 * Shows if the queue of the client is held in the hot tier (on the heap)
+	 *
+	 * @param clientId
+	 * @return boolean
+	 */
+	boolean isHot(int clientId) {
+		return hot.containsKey(clientId);
+	}
+
+	/**
+	 * Moves the queues of all clients that were not accessed for longer than the
+	 * time to live to the cold tier. Only the client whose queue is written is
+	 * blocked meanwhile.
+	 *
+	 * @return int : number of moved queues
+	 */
+	public int evictIdle() {
+		int evicted = 0;
+		for (Map.Entry<Integer, Slot> entry : hot.entrySet()) {
+			Slot slot = entry.getValue();
+			if (System.currentTimeMillis() - slot.lastAccess < ttlMillis) {
+				continue;
+			}
+			int clientId = entry.getKey();
+			slot.lock.lock();
+			try {
+				// accessed or removed since it was picked
+				if (slot.removed || slot.queue == null
+						|| System.currentTimeMillis() - slot.lastAccess < ttlMillis) {
+					continue;
+				}
+				store(clientId, slot.queue);
+				slot.queue = null;
+				slot.removed = true;
+				hot.remove(clientId, slot);
+				evicted++;
+			} catch (IOException e) {
+				logger.error("queue of client " + clientId + " could not be moved to disk", e);
+			} finally {
+				slot.lock.unlock();
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * Stops the periodic eviction and deletes the cold tier
+	 */
+	public void shutdown() {
+		evictor.shutdownNow();
+		synchronized (this) {
+			if (coldDirectoryCleaner != null) {
+				try {
+					Runtime.getRuntime().removeShutdownHook(coldDirectoryCleaner);
+				} catch (IllegalStateException e) {
+					// JVM is already exiting, the hook deletes the directory
+					return;
+				}
+				coldDirectoryCleaner = null;
+				deleteColdDirectory(coldDirectory);
+			}
+		}
+	}
+
+	/**
+	 * Returns the locked slot of the client, a slot is created if the client has
+	 * none. The slot has to be released with release.
+	 */
+	private Slot acquire(int clientId) {
+		while (true) {
+			Slot slot = hot.computeIfAbsent(clientId, id -> new Slot());
+			slot.lock.lock();
+			if (!slot.removed) {
+				slot.lastAccess = System.currentTimeMillis();
+				return slot;
+			}
+			// evicted or emptied meanwhile, take the next slot
+			slot.lock.unlock();
+		}
+	}
+
+	/**
+	 * Unlocks the slot, a slot without queue is removed from the hot tier
+	 */
+	private void release(int clientId, Slot slot) {
+		if (slot.queue == null) {
+			slot.removed = true;
+			hot.remove(clientId, slot);
+		}
+		slot.lock.unlock();
+	}
+
+	/**
+	 * Moves the queue of the client from the cold tier to the slot if the slot
+	 * has no queue yet. The lock of the slot has to be held.
+	 */
+	private void load(int clientId, Slot slot) throws IOException {
+		Path cold = coldDirectory;
+		if (slot.queue != null || cold == null) {
+			return;
+		}
+		Path file = coldFile(cold, clientId);
+		if (!Files.exists(file)) {
+			return;
+		}
+		CircularFifoQueue<byte[]> q;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			int maxSize = in.readInt();
+			int size = in.readInt();
+			q = new CircularFifoQueue<byte[]>(maxSize);
+			for (int i = 0; i < size; i++) {
+				byte[] order = new byte[in.readInt()];
+				in.readFully(order);
+				q.add(order);
+			}
+		}
+		try {
+			Files.delete(file);
+		} catch (IOException e) {
+			logger.warn("cold queue of client " + clientId + " could not be deleted", e);
+		}
+		slot.queue = q;
+	}
+
+	/**
+	 * Writes the queue of the client to the cold tier
+	 */
+	private void store(int clientId, CircularFifoQueue<byte[]> q) throws IOException {
+		Path file = coldFile(coldDirectory(), clientId);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeInt(q.maxSize());
+			out.writeInt(q.size());
+			for (byte[] order : q) {
+				out.writeInt(order.length);
+				out.write(order);
+			}
+		}
+	}
+
+	/**
+	 * Returns the directory of the cold tier, it is created with the first call
+	 */
+	private synchronized Path coldDirectory() throws IOException {
+		if (coldDirectory == null) {
+			Path dir = Files.createTempDirectory("orders");
+			coldDirectoryCleaner = new Thread(() -> deleteColdDirectory(dir), "order-store-cleaner");
+			Runtime.getRuntime().addShutdownHook(coldDirectoryCleaner);
+			coldDirectory = dir;
+		}
+		return coldDirectory;
+	}
+
+	private static void deleteColdDirectory(Path dir) {
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		} catch (IOException e) {
+			logger.warn("cold tier " + dir + " could not be deleted", e);
+		}
+	}
+
+	/**
+	 * File of the client in the cold tier
+	 */
+	Path coldFile(int clientId) {
+		Path cold = coldDirectory;
+		return cold == null ? null : coldFile(cold, clientId);
+	}
+
+	private static Path coldFile(Path cold, int clientId) {
+		return cold.resolve("client-" + clientId + ".bin");
+	}
+}
@@ -0,0 +1,314 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Connection to a server node or router of a cluster.
+ *
+ * Requests and responses are exchanged as single text lines over TCP. A request
+ * line consists of a command followed by space separated arguments, binary or
+ * multi-line values are Base64 encoded. Connections are pooled so that several
+ * threads can send requests at the same time.
+ *
+ * Asynchronous requests (callAsync, acceptMessageAsync) are pipelined on one
+ * connection: they are written without waiting for the responses of earlier
+ * requests. The responses arrive in the order of the requests and are read by
+ * one reader thread per connection, which completes the futures. So any number
+ * of requests can be in flight without a waiting thread per request. Callbacks
+ * of the futures run on the reader thread and must not block.
+ *
+ * Commands understood by server nodes and the router:
+ * <ul>
+ * <li>REGISTER key : registers a client, response is the client ID</li>
+ * <li>MESSAGE signedMessage : response is the encoded response of the
+ * server</li>
+ * </ul>
+ * Server nodes only accept requests of the router, which are authenticated
+ * with the cluster secret (see ClusterAuth):
+ * <ul>
+ * <li>REGISTER clientId key : registers a client with an assigned ID</li>
+ * <li>MESSAGE signedMessage : see above</li>
+ * <li>EXPORT clientId : response is "key orders fills resting" of the client
+ * or NONE. Each list is a comma separated list of Base64 values or - if it is
+ * empty. The client stays on the node, its resting orders are parked</li>
+ * <li>IMPORT clientId key orders fills resting : adds a client handed over
+ * from another node</li>
+ * <li>RESTORE clientId : puts the parked orders of a client back into the
+ * books after a failed hand-over</li>
+ * <li>REMOVE clientId : removes a client that was handed over to another
+ * node</li>
+ * </ul>
+ * Authenticated commands only understood by the router (sent by nodes):
+ * <ul>
+ * <li>JOIN host:port : adds a server node to the cluster</li>
+ * </ul>
+ */
+public class RemoteEndpoint implements MessageEndpoint {
+
+	private final InetSocketAddress address;
+
+	// authenticates all requests if set
+	private final ClusterAuth auth;
+
+	// idle connections
+	private final ConcurrentLinkedQueue<Connection> connections = new ConcurrentLinkedQueue<Connection>();
+
+	// connection of the asynchronous requests, replaced when it fails. Guarded by
+	// this
+	private Pipeline pipeline;
+
+	private static class Connection {
+		final Socket socket;
+		final BufferedReader in;
+		final BufferedWriter out;
+
+		Connection(InetSocketAddress address) throws IOException {
+			socket = new Socket(address.getHostString(), address.getPort());
+			socket.setTcpNoDelay(true);
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// connection is dropped anyway
+			}
+		}
+	}
+
+	/**
+	 * Connection on which requests are sent without waiting for the responses of
+	 * earlier requests
+	 */
+	private class Pipeline implements Runnable {
+		final Connection connection;
+		// futures of the sent requests in the order of the requests
+		final ConcurrentLinkedQueue<CompletableFuture<String>> pending = new ConcurrentLinkedQueue<CompletableFuture<String>>();
+		// guarded by this
+		boolean closed;
+
+		Pipeline() throws IOException {
+			connection = new Connection(address);
+			Thread reader = new Thread(this, "remote-endpoint-" + address.getPort());
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		CompletableFuture<String> send(String request) {
+			CompletableFuture<String> response = new CompletableFuture<String>();
+			IOException failure = null;
+			synchronized (this) {
+				if (closed) {
+					failure = new IOException("connection to " + address + " was closed");
+				} else {
+					// added and written under the same lock, so the futures have the
+					// order of the requests
+					pending.add(response);
+					try {
+						connection.out.write(request);
+						connection.out.newLine();
+						connection.out.flush();
+					} catch (IOException e) {
+						failure = e;
+					}
+				}
+			}
+			if (failure != null) {
+				response.completeExceptionally(failure);
+				fail(failure);
+			}
+			return response;
+		}
+
+		synchronized boolean isClosed() {
+			return closed;
+		}
+
+		@Override
+		public void run() {
+			try {
+				String response;
+				while ((response = connection.in.readLine()) != null) {
+					CompletableFuture<String> f = pending.poll();
+					if (f != null) {
+						f.complete(response);
+					}
+				}
+				fail(new IOException("connection to " + address + " was closed"));
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+
+		/**
+		 * Closes the connection, all requests without response fail. The futures
+		 * are completed outside of the lock, their callbacks may send requests.
+		 */
+		void fail(IOException e) {
+			synchronized (this) {
+				closed = true;
+			}
+			connection.close();
+			CompletableFuture<String> f;
+			while ((f = pending.poll()) != null) {
+				f.completeExceptionally(e);
+			}
+		}
+	}
+
+	public RemoteEndpoint(InetSocketAddress address) {
+		this(address, null);
+	}
+
+	/**
+	 * @param address
+	 * @param auth    authenticates every request with the cluster secret
+	 */
+	public RemoteEndpoint(InetSocketAddress address, ClusterAuth auth) {
+		this.address = address;
+		this.auth = auth;
+	}
+
+	/**
+	 * Parses an address of the form host:port
+	 *
+	 * @param hostAndPort
+	 * @return InetSocketAddress
+	 */
+	public static InetSocketAddress parseAddress(String hostAndPort) {
+		int i = hostAndPort.lastIndexOf(':');
+		if (i == -1) {
+			return new InetSocketAddress("localhost", Integer.parseInt(hostAndPort));
+		}
+		return new InetSocketAddress(hostAndPort.substring(0, i), Integer.parseInt(hostAndPort.substring(i + 1)));
+	}
+
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	@Override
+	public int registerClient(byte[] key) {
+		try {
+			return Integer.parseInt(call("REGISTER " + encode(key)));
+		} catch (IOException | NumberFormatException e) {
+			e.printStackTrace();
+			return -1;
+		}
+	}
+
+	@Override
+	public String acceptMessage(String message) {
+		try {
+			return decodeString(call("MESSAGE " + encode(message)));
+		} catch (IOException | IllegalArgumentException e) {
+			e.printStackTrace();
+			return new String("{\"Failure\"}");
+		}
+	}
+
+	@Override
+	public CompletableFuture<String> acceptMessageAsync(String message) {
+		return callAsync("MESSAGE " + encode(message)).thenApply(RemoteEndpoint::decodeString).exceptionally(e -> {
+			e.printStackTrace();
+			return new String("{\"Failure\"}");
+		});
+	}
+
+	/**
+	 * Sends a request line without waiting for the response line
+	 *
+	 * @param request
+	 * @return CompletableFuture<String> : completes with the response line, or
+	 *         exceptionally if the connection fails
+	 */
+	public CompletableFuture<String> callAsync(String request) {
+		Pipeline p;
+		synchronized (this) {
+			if (pipeline == null || pipeline.isClosed()) {
+				try {
+					pipeline = new Pipeline();
+				} catch (IOException e) {
+					return CompletableFuture.failedFuture(e);
+				}
+			}
+			p = pipeline;
+		}
+		return p.send(auth != null ? auth.sign(request) : request);
+	}
+
+	/**
+	 * Sends a request line and waits for the response line
+	 *
+	 * @param request
+	 * @return String : response line
+	 * @throws IOException
+	 */
+	public String call(String request) throws IOException {
+		Connection c = connections.poll();
+		if (c == null) {
+			c = new Connection(address);
+		}
+		try {
+			c.out.write(auth != null ? auth.sign(request) : request);
+			c.out.newLine();
+			c.out.flush();
+			String response = c.in.readLine();
+			if (response == null) {
+				throw new IOException("connection to " + address + " was closed");
+			}
+			connections.add(c);
+			return response;
+		} catch (IOException e) {
+			c.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes all idle connections and the connection of the asynchronous
+	 * requests, requests without response fail
+	 */
+	public void close() {
+		Connection c;
+		while ((c = connections.poll()) != null) {
+			c.close();
+		}
+		Pipeline p;
+		synchronized (this) {
+			p = pipeline;
+			pipeline = null;
+		}
+		if (p != null) {
+			p.fail(new IOException("connection to " + address + " was closed"));
+		}
+	}
+
+	static String encode(byte[] value) {
+		return Base64.getEncoder().encodeToString(value);
+	}
+
+	static String encode(String value) {
+		return encode(value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	static byte[] decode(String value) {
+		return Base64.getDecoder().decode(value);
+	}
+
+	static String decodeString(String value) {
+		return new String(decode(value), StandardCharsets.UTF_8);
+	}
+}
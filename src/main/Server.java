@@ -11,9 +11,13 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -23,12 +27,11 @@ import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
-import org.apache.commons.collections4.map.HashedMap;
 import org.apache.commons.collections4.queue.CircularFifoQueue;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
+import main.MatchingEngine.RestingOrder;
 import main.Message.MessageType;
 
 /**
@@ -42,9 +45,14 @@ import main.Message.MessageType;
  * incoming orders will be stored encrypted such that no unauthorized party can
  * see unencrypted order.
  */
-public class Server extends Thread {
-	// Queue to store orders of a client with a specific ID
-	HashedMap<Integer, CircularFifoQueue<byte[]>> queues = new HashedMap<Integer, CircularFifoQueue<byte[]>>();
+public class Server extends Thread implements MessageEndpoint {
+	// maximum number of orders stored per client
+	static int queueCapacity = 100;
+	// time after which the orders of idle clients are moved from heap to disk
+	private static long idleClientTTL = 10 * 60 * 1000;
+
+	// Queues to store orders of a client with a specific ID
+	OrderStore queues = new OrderStore(queueCapacity, idleClientTTL);
 	// maximum timeout of server used in "run" Method
 	private static int sendFrequency = 5000;
 
@@ -52,8 +60,32 @@ public class Server extends Thread {
 	// AppMain.java
 	static byte[] masterKey;
 
-	// all registered clients with their Keys
-	List<byte[]> clients = Collections.synchronizedList(new ArrayList<byte[]>());
+	// all registered clients with their Keys, mapped by client ID
+	Map<Integer, byte[]> clients = Collections.synchronizedMap(new HashMap<Integer, byte[]>());
+	// ID for the next client registered by this server
+	private int nextClientId = 0;
+
+	// aggregated buy/sell amount per stock over the orders of all clients
+	OrderBookIndex orderBook = new OrderBookIndex();
+
+	// fills of the orders of a client with a specific ID that were not yet sent.
+	// Unbounded, fills are confirmations of trades and must not be dropped. Fills
+	// of clients that do not ask for them are moved to disk like idle orders
+	OrderStore fills = new OrderStore(Integer.MAX_VALUE, idleClientTTL);
+
+	// one collector of fills at a time, keeps the fills of a client in order
+	private final Object fillCollector = new Object();
+
+	// resting orders of clients that are handed over to another server, taken out
+	// of the matching engine. Guarded by this
+	private final Map<Integer, List<RestingOrder>> parkedOrders = new HashMap<Integer, List<RestingOrder>>();
+
+	// crosses the buy/sell orders of all clients, started with the first order
+	private MatchingEngine matchingEngine;
+
+	// shows if an order was already answered, for reporting the time to first
+	// order
+	private final AtomicBoolean firstOrderAnswered = new AtomicBoolean();
 
 	/**
 	 * Server retrieves key for later signature validation from client
@@ -63,15 +95,121 @@ public class Server extends Thread {
 	 */
 	public synchronized int registerClient(byte[] key) {
 
-		if (clients.indexOf(key) == -1) {
-			clients.add(key);
+		synchronized (clients) {
+			for (Map.Entry<Integer, byte[]> client : clients.entrySet()) {
+				if (Arrays.equals(client.getValue(), key)) {
+					return client.getKey();
+				}
+			}
+		}
+		while (clients.containsKey(nextClientId)) {
+			nextClientId++;
 		}
+		return registerClient(nextClientId, key);
+	}
 
-		int id = clients.indexOf(key);
+	/**
+	 * Server retrieves key for later signature validation from client whose ID
+	 * was already assigned (e.g. by the router of a cluster). The key of an
+	 * already registered client is never replaced, otherwise anybody could sign
+	 * messages in the name of the client.
+	 * 
+	 * @param clientId
+	 * @param key publicKey of client
+	 * @return int : client ID, -1 if another key is registered for the ID
+	 */
+	public synchronized int registerClient(int clientId, byte[] key) {
+		byte[] registered = clients.putIfAbsent(clientId, key);
+		if (registered != null && !Arrays.equals(registered, key)) {
+			return -1;
+		}
 
-		// new Queue of the client to store his later incoming orders
-		queues.put(id, new CircularFifoQueue<byte[]>(100));
-		return id;
+		// queue of the client is allocated with the first incoming order
+		return clientId;
+	}
+
+	/**
+	 * Takes over a client that is handed over from another server, replaces a
+	 * client with the same ID. The resting orders of the client are submitted to
+	 * the matching engine of this server, they lose their time priority.
+	 * 
+	 * @param clientId
+	 * @param key publicKey of client
+	 * @param orders encrypted orders of the client, may be null
+	 * @param pendingFills fills that were not yet sent to the client, may be null
+	 * @param restingOrders orders of the client that rest in the books
+	 * @throws InterruptedException
+	 */
+	synchronized void importClient(int clientId, byte[] key, CircularFifoQueue<byte[]> orders,
+			CircularFifoQueue<byte[]> pendingFills, List<RestingOrder> restingOrders) throws InterruptedException {
+		clients.put(clientId, key);
+		if (orders != null) {
+			queues.put(clientId, orders);
+		} else {
+			queues.remove(clientId);
+		}
+		if (pendingFills != null) {
+			fills.put(clientId, pendingFills);
+		} else {
+			fills.remove(clientId);
+		}
+		for (RestingOrder order : restingOrders) {
+			getMatchingEngine().submit(clientId, order.getType(), order.getStockISIN(), order.getAmount());
+		}
+	}
+
+	/**
+	 * Takes the resting orders of a client that is handed over to another server
+	 * out of the matching engine, so no further fills are created for the client
+	 * here. All fills created so far are collected. The orders are kept until the
+	 * client is removed or its orders are restored.
+	 * 
+	 * @param clientId
+	 * @return List<RestingOrder> : orders of the client that rested in the books
+	 * @throws InterruptedException
+	 */
+	synchronized List<RestingOrder> parkOrders(int clientId) throws InterruptedException {
+		List<RestingOrder> parked = parkedOrders.get(clientId);
+		if (parked == null) {
+			parked = matchingEngine != null ? matchingEngine.cancelOrders(clientId) : new ArrayList<RestingOrder>();
+			parkedOrders.put(clientId, parked);
+			collectFills();
+		}
+		return parked;
+	}
+
+	/**
+	 * Submits the parked orders of a client again after its hand-over failed
+	 * 
+	 * @param clientId
+	 * @throws InterruptedException
+	 */
+	synchronized void restoreOrders(int clientId) throws InterruptedException {
+		List<RestingOrder> parked = parkedOrders.remove(clientId);
+		if (parked == null) {
+			return;
+		}
+		for (RestingOrder order : parked) {
+			getMatchingEngine().submit(clientId, order.getType(), order.getStockISIN(), order.getAmount());
+		}
+	}
+
+	/**
+	 * Removes a client that was handed over to another server together with its
+	 * orders, pending fills and resting orders
+	 * 
+	 * @param clientId
+	 * @throws InterruptedException
+	 */
+	synchronized void removeClient(int clientId) throws InterruptedException {
+		if (matchingEngine != null) {
+			matchingEngine.cancelOrders(clientId);
+			collectFills();
+		}
+		parkedOrders.remove(clientId);
+		clients.remove(clientId);
+		queues.remove(clientId);
+		fills.remove(clientId);
 	}
 
 	/**
@@ -88,6 +226,10 @@ public class Server extends Thread {
 		boolean resultValidation = false;
 
 		byte[] publicKey = clients.get(clientID);
+		if (publicKey == null) {
+			p("client " + clientID + " is not registered");
+			return false;
+		}
 		PublicKey key = null;
 		try {
 
@@ -134,7 +276,7 @@ public class Server extends Thread {
 		if (encryptedOrder == null) {
 			return false;
 		} else {
-			return queues.get(clientId).add(encryptedOrder);
+			return queues.add(clientId, encryptedOrder);
 		}
 	}
 
@@ -176,6 +318,99 @@ public class Server extends Thread {
 		}
 	}
 
+	/**
+	 * Adds a stored buy/sell order to the order book index and hands it over to
+	 * the matching engine
+	 * 
+	 * @param type: BUY/SELL stock
+	 * @param clientId
+	 * @param theMessage: order of the client
+	 */
+	private void processOrder(MessageType type, int clientId, Message theMessage) {
+		String stockISIN = theMessage.getMessageParameters().get("stockISIN");
+		long amount;
+		try {
+			amount = Long.parseLong(theMessage.getMessageParameters().get("amount"));
+		} catch (NumberFormatException e) {
+			p("order for " + stockISIN + " has no valid amount, not processed");
+			return;
+		}
+		if (amount <= 0) {
+			p("order for " + stockISIN + " has no positive amount, not processed");
+			return;
+		}
+		if (!orderBook.addOrder(type, stockISIN, amount)) {
+			p("order for " + stockISIN + " would overflow the volume of the stock, not processed");
+			return;
+		}
+		try {
+			getMatchingEngine().submit(clientId, type, stockISIN, amount);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Getter for the matching engine, the engine is started with the first call
+	 * 
+	 * @return MatchingEngine
+	 */
+	synchronized MatchingEngine getMatchingEngine() {
+		if (matchingEngine == null) {
+			matchingEngine = new MatchingEngine();
+		}
+		return matchingEngine;
+	}
+
+	/**
+	 * Collects the fills of the matching engine and stores them for their
+	 * clients, they will be sent with the next GetOrders request of the client
+	 */
+	void collectFills() {
+		MatchingEngine engine;
+		synchronized (this) {
+			engine = matchingEngine;
+		}
+		if (engine == null) {
+			return;
+		}
+		synchronized (fillCollector) {
+			engine.drainFills(fill -> {
+				try {
+					String message = Message.createServerSendFillMessage(fill.getType(), fill.getStockISIN(),
+							fill.getAmount());
+					if (!fills.add(fill.getClientId(), message.getBytes(StandardCharsets.UTF_8))) {
+						p("fill for client " + fill.getClientId() + " could not be stored");
+					}
+				} catch (JsonProcessingException e) {
+					p("Exception " + e.getLocalizedMessage());
+				}
+			});
+		}
+	}
+
+	/**
+	 * Stops the background threads of the server (matching engine, eviction of
+	 * idle order queues)
+	 */
+	public synchronized void shutdown() {
+		if (matchingEngine != null) {
+			matchingEngine.shutdown();
+			matchingEngine = null;
+		}
+		queues.shutdown();
+		fills.shutdown();
+	}
+
+	/**
+	 * Getter for the order book index over the orders of all clients
+	 * 
+	 * @return OrderBookIndex
+	 */
+	public OrderBookIndex getOrderBook() {
+		return orderBook;
+	}
+
 	/**
 	 * Message get processed depending on its MessageType and validation result.
 	 * 
@@ -183,30 +418,37 @@ public class Server extends Thread {
 	 * @param clientId
 	 * @param isCorrectMessage: shows if message signature was correct
 	 * @param signedMessage: message sent from the client to server
+	 * @param theMessage: content of the signed message
 	 * @return String
 	 * @throws JsonProcessingException
 	 */
-	private String parseMessage(MessageType type, int clientId, boolean isCorrectMessage, SignedMessage signedMessage)
-			throws JsonProcessingException {
+	private String parseMessage(MessageType type, int clientId, boolean isCorrectMessage, SignedMessage signedMessage,
+			Message theMessage) throws JsonProcessingException {
 		switch (type) {
 		case GetOrders:
 			CircularFifoQueue<byte[]> q = queues.get(clientId);
 			String answer = "";
 
-			if (q.size() == 0) {
-				return "no orders in queue";
-			}
-			for (int i = 0; i < q.size(); i++) {
+			for (int i = 0; q != null && i < q.size(); i++) {
 				byte[] encryptedOrder = q.get(i);
 				String decrypted = "";
 				decrypted = decryptOrder(encryptedOrder);
 				answer = answer + Message.createServerSendOrdersMessage(decrypted) + "\n";
 			}
+			collectFills();
+			CircularFifoQueue<byte[]> f = fills.remove(clientId);
+			for (int i = 0; f != null && i < f.size(); i++) {
+				answer = answer + new String(f.get(i), StandardCharsets.UTF_8) + "\n";
+			}
+			if (answer.isEmpty()) {
+				return "no orders in queue";
+			}
 			return answer;
 		case BuyStock:
 		case SellStock:
 			boolean encryptionResult = saveOrderEncrypted(signedMessage.getContent().getBytes(), clientId);
 			if (encryptionResult) {
+				processOrder(type, clientId, theMessage);
 				return Message.createServerResponseMessage(isCorrectMessage);
 			} else {
 				return "{\"Failure during encryption\"}";
@@ -226,12 +468,12 @@ public class Server extends Thread {
 	 */
 	public String acceptMessage(String message) {
 
+		long received = System.nanoTime();
 		boolean isCorrectMessage = false;
 		MessageType type = null;
 		int clientId = 0;
-		ObjectMapper mapper = new ObjectMapper();
 		try {
-			SignedMessage signedMessage = mapper.readValue(message, SignedMessage.class);
+			SignedMessage signedMessage = Message.mapper.readValue(message, SignedMessage.class);
 			clientId = signedMessage.getClientId();
 
 			byte[] signature = signedMessage.getSignature();
@@ -240,12 +482,12 @@ public class Server extends Thread {
 			p("message signature is " + (isCorrectMessage ? "valid" : "not valid"));
 			if (isCorrectMessage == true) {
 
-				Message theMessage = mapper.readValue(signedMessage.getContent(), Message.class);
+				Message theMessage = Message.mapper.readValue(signedMessage.getContent(), Message.class);
 				type = theMessage.getMessageType();
 
 				p(theMessage.getMessageType().toString());
 
-				return parseMessage(type, clientId, isCorrectMessage, signedMessage);
+				return parseMessage(type, clientId, isCorrectMessage, signedMessage, theMessage);
 
 			} else {
 				return Message.createServerResponseMessage(isCorrectMessage);
@@ -253,6 +495,14 @@ public class Server extends Thread {
 		} catch (JsonProcessingException e) {
 			p("Exception " + e.getLocalizedMessage());
 			return new String("{\"Failure\"}");
+		} finally {
+			// the time since ready includes the random start delay of the client, the
+			// time to answer shows how fast the server handles its first order
+			if ((type == MessageType.BuyStock || type == MessageType.SellStock)
+					&& firstOrderAnswered.compareAndSet(false, true)) {
+				p("first order " + StartupWarmup.millisSinceReady() + " ms after ready, answered in "
+						+ (System.nanoTime() - received) / 1000000 + " ms");
+			}
 		}
 	}
 
@@ -0,0 +1,203 @@
+package main;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.collections4.queue.CircularFifoQueue;
+
+import main.MatchingEngine.RestingOrder;
+import main.Message.MessageType;
+
+/**
+ * Server node of a cluster. Makes a server reachable over TCP for the router of
+ * the cluster (see RemoteEndpoint for the protocol). Every node owns the
+ * clients whose IDs are mapped to it by the router. The node only answers
+ * requests that are authenticated with the cluster secret (see ClusterAuth),
+ * clients have to connect through the router.
+ *
+ * All nodes of a cluster have to use the same master key, otherwise orders of
+ * clients that are handed over to another node can not be decrypted there. The
+ * master key and the cluster secret are read from the given files, the first
+ * node that is started creates them readable for its user only.
+ *
+ * A client is handed over with its stored orders, its pending fills and its
+ * orders that rest in the books of the matching engine. On EXPORT the resting
+ * orders are taken out of the engine, so the old node creates no further fills
+ * for the client. They are submitted to the engine of the new node on IMPORT
+ * and lose their time priority there. If the hand-over fails, RESTORE submits
+ * them to the engine of the old node again. The order book index only counts
+ * the orders a node has accepted itself and is not handed over.
+ *
+ * Start with: ServerNode port keyFile secretFile [router]. If the address of a
+ * router is given (host:port), the node joins the cluster of the router after
+ * it was started. With -DfastStartup=true the node answers requests and joins
+ * only after the warm-up (see StartupWarmup) has finished, so a router that
+ * lists the node from the start cannot send it orders earlier.
+ */
+public class ServerNode extends LineProtocolServer {
+
+	private static org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager
+			.getLogger(ServerNode.class);
+
+	private final Server server;
+
+	/**
+	 * Binds the node to the given port
+	 *
+	 * @param server
+	 * @param port
+	 * @param auth   checks the requests of the router
+	 * @throws IOException
+	 */
+	public ServerNode(Server server, int port, ClusterAuth auth) throws IOException {
+		super(port, auth);
+		this.server = server;
+	}
+
+	@Override
+	protected String process(String[] request, boolean authenticated) {
+		if (!authenticated) {
+			logger.warn("Unauthenticated request " + request[0] + " rejected");
+			return "ERROR";
+		}
+		try {
+			switch (request[0]) {
+			case "REGISTER":
+				if (request.length == 2) {
+					return String.valueOf(server.registerClient(RemoteEndpoint.decode(request[1])));
+				}
+				return String.valueOf(
+						server.registerClient(Integer.parseInt(request[1]), RemoteEndpoint.decode(request[2])));
+			case "MESSAGE":
+				return RemoteEndpoint.encode(server.acceptMessage(RemoteEndpoint.decodeString(request[1])));
+			case "EXPORT":
+				return exportClient(Integer.parseInt(request[1]));
+			case "IMPORT":
+				importClient(request);
+				return "OK";
+			case "RESTORE":
+				server.restoreOrders(Integer.parseInt(request[1]));
+				return "OK";
+			case "REMOVE":
+				server.removeClient(Integer.parseInt(request[1]));
+				logger.info("Client " + request[1] + " handed over");
+				return "OK";
+			default:
+				return "ERROR";
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return "ERROR";
+		}
+	}
+
+	/**
+	 * Copies the state of a client that is handed over to another node. The
+	 * resting orders of the client are parked, everything else stays on this
+	 * node until the router removes the client.
+	 *
+	 * @return String : key, encrypted orders, pending fills and resting orders of
+	 *         the client or NONE
+	 * @throws InterruptedException
+	 */
+	private String exportClient(int clientId) throws InterruptedException {
+		byte[] key = server.clients.get(clientId);
+		if (key == null) {
+			return "NONE";
+		}
+		List<RestingOrder> resting = server.parkOrders(clientId);
+		List<byte[]> restingValues = new ArrayList<byte[]>();
+		for (RestingOrder order : resting) {
+			restingValues.add((order.getType() + " " + order.getStockISIN() + " " + order.getAmount())
+					.getBytes(StandardCharsets.UTF_8));
+		}
+		return RemoteEndpoint.encode(key) + " " + encodeList(server.queues.get(clientId)) + " "
+				+ encodeList(server.fills.get(clientId)) + " " + encodeList(restingValues);
+	}
+
+	/**
+	 * Adds a client that is handed over from another node
+	 *
+	 * @param request IMPORT clientId key orders fills resting
+	 * @throws InterruptedException
+	 */
+	private void importClient(String[] request) throws InterruptedException {
+		int clientId = Integer.parseInt(request[1]);
+		List<byte[]> orders = decodeList(request[3]);
+		List<byte[]> fills = decodeList(request[4]);
+		List<RestingOrder> resting = new ArrayList<RestingOrder>();
+		for (byte[] value : decodeList(request[5])) {
+			String[] order = new String(value, StandardCharsets.UTF_8).split(" ");
+			resting.add(new RestingOrder(clientId, MessageType.valueOf(order[0]), order[1], Long.parseLong(order[2])));
+		}
+		server.importClient(clientId, RemoteEndpoint.decode(request[2]), toQueue(orders, Server.queueCapacity),
+				toQueue(fills, fills.size()), resting);
+		logger.info("Client " + clientId + " taken over");
+	}
+
+	/**
+	 * Encodes a list of values as one argument of a request, - for no values
+	 */
+	private static String encodeList(Iterable<byte[]> values) {
+		StringBuilder sb = new StringBuilder();
+		if (values != null) {
+			for (byte[] value : values) {
+				if (sb.length() > 0) {
+					sb.append(',');
+				}
+				sb.append(RemoteEndpoint.encode(value));
+			}
+		}
+		return sb.length() == 0 ? "-" : sb.toString();
+	}
+
+	private static List<byte[]> decodeList(String argument) {
+		List<byte[]> values = new ArrayList<byte[]>();
+		if (!"-".equals(argument)) {
+			for (String value : argument.split(",")) {
+				values.add(RemoteEndpoint.decode(value));
+			}
+		}
+		return values;
+	}
+
+	private static CircularFifoQueue<byte[]> toQueue(List<byte[]> values, int capacity) {
+		if (values.isEmpty()) {
+			return null;
+		}
+		CircularFifoQueue<byte[]> q = new CircularFifoQueue<byte[]>(Math.max(capacity, values.size()));
+		q.addAll(values);
+		return q;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3 && args.length != 4) {
+			System.out.println("usage: ServerNode port keyFile secretFile [router]");
+			return;
+		}
+		if (StartupWarmup.fastStartup) {
+			StartupWarmup.start();
+		}
+		Server.masterKey = ClusterAuth.loadOrCreateKey(Paths.get(args[1]), Server::generateKey);
+		ClusterAuth auth = new ClusterAuth(
+				ClusterAuth.loadOrCreateKey(Paths.get(args[2]), ClusterAuth::generateSecret));
+		Server server = new Server();
+		server.start();
+		ServerNode node = new ServerNode(server, Integer.parseInt(args[0]), auth);
+
+		// requests are only answered, and the cluster is only joined, once the node
+		// is ready. Until then connections wait in the backlog of the socket
+		StartupWarmup.awaitReady();
+		Thread listener = new Thread(node, "server-node");
+		listener.start();
+		if (args.length == 4) {
+			RemoteEndpoint router = new RemoteEndpoint(RemoteEndpoint.parseAddress(args[3]), auth);
+			String address = bindAddress().getHostAddress() + ":" + node.getPort();
+			logger.info("Joined cluster: " + router.call("JOIN " + address));
+			router.close();
+		}
+	}
+}
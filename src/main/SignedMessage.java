@@ -3,7 +3,6 @@ package main;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 /**
  * Realizes the format of a message which should contain the order of the client as well as a 
  * corresponding signature.
@@ -53,9 +52,7 @@ public class SignedMessage {
 
 	public static String createSignedMessage(int clientId, String message, byte[] signature)
 			throws JsonProcessingException {
-		ObjectMapper mapper = new ObjectMapper();
-
-		return mapper.writeValueAsString(new SignedMessage(clientId, message, signature));
+		return Message.mapper.writeValueAsString(new SignedMessage(clientId, message, signature));
 	}
 
 }
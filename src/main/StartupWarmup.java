@@ -0,0 +1,184 @@
+package main;
+
+import java.lang.management.ManagementFactory;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+/**
+ * Startup-optimized mode (-DfastStartup=true).
+ *
+ * The first orders after a start would otherwise pay for the initialization of
+ * the crypto providers, the introspection of Message/SignedMessage by Jackson,
+ * the RSA implementation and the interpreter. The warm-up does all of this once
+ * on a background thread while the server is started, the server is reported
+ * ready only after the warm-up has finished. It uses a small RSA key, so the
+ * warm-up itself does not add the cost of a full-size key generation.
+ *
+ * The server is ready once the warm-up has finished, or without warm-up once
+ * awaitReady was called. The time to the first order is measured from there.
+ *
+ * Class loading can additionally be shortened with an AppCDS archive, see
+ * README.md.
+ */
+public class StartupWarmup {
+
+	private static org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager
+			.getLogger(StartupWarmup.class);
+
+	// shows if the startup-optimized mode is enabled
+	static final boolean fastStartup = Boolean.getBoolean("fastStartup");
+
+	// number of message round trips that are performed to trigger the JIT
+	private static final int ITERATIONS = 200;
+
+	// size of the throwaway RSA key, large enough to run the same code paths as
+	// the 4096 bit keys of the clients
+	private static final int WARMUP_KEY_SIZE = 1024;
+
+	private static CompletableFuture<Void> ready;
+
+	// System.nanoTime() when the server became ready, 0 before
+	private static volatile long readyNanos;
+
+	/**
+	 * Starts the warm-up on a background thread, further calls return the
+	 * running warm-up
+	 *
+	 * @return CompletableFuture<Void> : completes when the warm-up has finished
+	 */
+	public static synchronized CompletableFuture<Void> start() {
+		if (ready == null) {
+			ready = new CompletableFuture<Void>();
+			Thread t = new Thread(StartupWarmup::run, "startup-warmup");
+			t.setDaemon(true);
+			t.start();
+		}
+		return ready;
+	}
+
+	/**
+	 * Waits until the warm-up has finished and marks the server as ready. Returns
+	 * at once if the warm-up was never started.
+	 */
+	public static void awaitReady() {
+		CompletableFuture<Void> r;
+		synchronized (StartupWarmup.class) {
+			r = ready;
+		}
+		if (r != null) {
+			try {
+				r.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				// a failed warm-up only costs time, the server works anyway
+				logger.warn("Warm-up failed", e.getCause());
+			}
+		}
+		markReady();
+	}
+
+	/**
+	 * Milliseconds since the server became ready
+	 *
+	 * @return long : -1 if the server is not ready yet
+	 */
+	public static long millisSinceReady() {
+		long r = readyNanos;
+		return r == 0 ? -1 : (System.nanoTime() - r) / 1000000;
+	}
+
+	/**
+	 * Records the time the server became ready, only the first call counts
+	 */
+	private static synchronized void markReady() {
+		if (readyNanos == 0) {
+			readyNanos = System.nanoTime();
+		}
+	}
+
+	private static void run() {
+		long start = System.nanoTime();
+		try {
+			warmUpCrypto();
+			warmUpMessages();
+			markReady();
+			long warmUp = (System.nanoTime() - start) / 1000000;
+			long now = System.currentTimeMillis();
+			ready.complete(null);
+			// the JVM records its own start, the start of the process is only known
+			// in whole seconds on Linux. Read once the server is ready, so loading the
+			// management classes does not delay it
+			long uptime = now - ManagementFactory.getRuntimeMXBean().getStartTime();
+			p("ready after " + warmUp + " ms of warm-up, " + uptime + " ms after JVM start");
+		} catch (GeneralSecurityException | JsonProcessingException | RuntimeException e) {
+			ready.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Initializes the providers and the key generators, key factories, ciphers
+	 * and signatures used by clients and server
+	 */
+	private static void warmUpCrypto() throws GeneralSecurityException {
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+		keyPairGenerator.initialize(WARMUP_KEY_SIZE);
+		KeyPair keyPair = keyPairGenerator.generateKeyPair();
+		KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(keyPair.getPublic().getEncoded()));
+
+		byte[] data = new byte[128];
+		Signature signature = Signature.getInstance("SHA256withRSA");
+		signature.initSign(keyPair.getPrivate());
+		signature.update(data);
+		byte[] signed = signature.sign();
+		signature.initVerify(keyPair.getPublic());
+		signature.update(data);
+		signature.verify(signed);
+
+		KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+		keyGen.init(256);
+		SecretKey key = keyGen.generateKey();
+		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		cipher.init(Cipher.ENCRYPT_MODE, key);
+		cipher.doFinal(data);
+	}
+
+	/**
+	 * Serializes and parses all kinds of messages with the shared mapper
+	 */
+	private static void warmUpMessages() throws JsonProcessingException {
+		for (int i = 0; i < ITERATIONS; i++) {
+			String[] messages = { Message.createBuyStockMessage("WARMUP000000", "1"),
+					Message.createSellStockMessage("WARMUP000000", "1"), Message.createGetOrdersMessage(),
+					Message.createServerResponseMessage(true), Message.createServerSendOrdersMessage("warmup") };
+			for (String message : messages) {
+				String signedMessage = SignedMessage.createSignedMessage(-1, message, new byte[0]);
+				SignedMessage parsed = Message.mapper.readValue(signedMessage, SignedMessage.class);
+				Message.mapper.readValue(parsed.getContent(), Message.class);
+			}
+		}
+	}
+
+	/**
+	 * Auxiliary method for showing the progress of the warm-up
+	 *
+	 * @param s
+	 */
+	private static void p(String s) {
+		System.out.println(Instant.now().toString() + " warm-up: " + s);
+	}
+}
@@ -0,0 +1,89 @@
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+public class ClusterAuthTest {
+
+	private final ClusterAuth auth = new ClusterAuth(ClusterAuth.generateSecret());
+
+	@Test
+	public void acceptsSignedRequest() {
+		assertEquals("EXPORT 7", auth.verify(auth.sign("EXPORT 7")));
+	}
+
+	@Test
+	public void rejectsReplayedRequest() {
+		String line = auth.sign("REMOVE 7");
+		auth.verify(line);
+
+		assertNull(auth.verify(line));
+	}
+
+	@Test
+	public void rejectsChangedRequest() {
+		String line = auth.sign("REMOVE 7");
+
+		assertNull(auth.verify(line.replace("REMOVE 7", "REMOVE 8")));
+	}
+
+	@Test
+	public void rejectsRequestOfOtherSecret() {
+		ClusterAuth other = new ClusterAuth(ClusterAuth.generateSecret());
+
+		assertNull(auth.verify(other.sign("EXPORT 7")));
+	}
+
+	@Test
+	public void rejectsOldRequest() {
+		String[] parts = auth.sign("EXPORT 7").split(" ", 3);
+		String old = "AUTH " + (Long.parseLong(parts[1]) - 60000) + " " + parts[2];
+
+		assertNull(auth.verify(old));
+	}
+
+	@Test
+	public void verifiesRequestsOfSeveralThreads() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i = 0; i < 1000; i++) {
+				String request = "EXPORT " + i;
+				results.add(executor.submit(() -> auth.verify(auth.sign(request))));
+			}
+			for (int i = 0; i < 1000; i++) {
+				assertEquals("EXPORT " + i, results.get(i).get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void createsKeyFileForOwnerOnly() throws IOException {
+		Path dir = Files.createTempDirectory("auth");
+		Path file = dir.resolve("cluster.secret");
+		try {
+			byte[] secret = ClusterAuth.loadOrCreateKey(file, ClusterAuth::generateSecret);
+
+			assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+			assertArrayEquals(secret, ClusterAuth.loadOrCreateKey(file, ClusterAuth::generateSecret));
+		} finally {
+			Files.deleteIfExists(file);
+			Files.delete(dir);
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.collections4.queue.CircularFifoQueue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import main.Message.MessageType;
+
+/**
+ * Cluster of in-process server nodes and a router on ephemeral ports
+ */
+public class ClusterRouterTest {
+
+	private ClusterAuth auth;
+	private final List<Server> servers = new ArrayList<Server>();
+	private final List<ServerNode> nodes = new ArrayList<ServerNode>();
+	private ClusterRouter router;
+	private RemoteEndpoint client;
+	private RemoteEndpoint admin;
+
+	@BeforeEach
+	public void startCluster() throws IOException {
+		Server.masterKey = Server.generateKey();
+		auth = new ClusterAuth(ClusterAuth.generateSecret());
+		startNode(auth);
+		startNode(auth);
+
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		for (ServerNode node : nodes) {
+			addresses.add(address(node));
+		}
+		router = new ClusterRouter(0, addresses, auth);
+		start(router);
+		InetSocketAddress routerAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), router.getPort());
+		client = new RemoteEndpoint(routerAddress);
+		admin = new RemoteEndpoint(routerAddress, auth);
+	}
+
+	@AfterEach
+	public void stopCluster() {
+		client.close();
+		admin.close();
+		router.close();
+		for (ServerNode node : nodes) {
+			node.close();
+		}
+		for (Server server : servers) {
+			server.shutdown();
+		}
+	}
+
+	private ServerNode startNode(ClusterAuth nodeAuth) throws IOException {
+		Server server = new Server();
+		ServerNode node = new ServerNode(server, 0, nodeAuth);
+		start(node);
+		servers.add(server);
+		nodes.add(node);
+		return node;
+	}
+
+	private static void start(Runnable listener) {
+		Thread t = new Thread(listener);
+		t.setDaemon(true);
+		t.start();
+	}
+
+	private static InetSocketAddress address(ServerNode node) {
+		return new InetSocketAddress(InetAddress.getLoopbackAddress(), node.getPort());
+	}
+
+	/**
+	 * Registers clients and stores one order for every client on its node
+	 */
+	private List<Integer> registerClients(int count) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (int i = 0; i < count; i++) {
+			int id = client.registerClient(new byte[] { (byte) i, 1, 2 });
+			assertTrue(id >= 0);
+			ids.add(id);
+			for (Server server : servers) {
+				if (server.clients.containsKey(id)) {
+					server.queues.add(id, new byte[] { (byte) i });
+				}
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Checks that every client is on exactly one node and has its order there
+	 *
+	 * @return int[] : number of clients per node
+	 */
+	private int[] assertEveryClientOnOneNode(List<Integer> ids) {
+		int[] counts = new int[servers.size()];
+		for (int id : ids) {
+			int owners = 0;
+			for (int i = 0; i < servers.size(); i++) {
+				Server server = servers.get(i);
+				if (server.clients.containsKey(id)) {
+					owners++;
+					counts[i]++;
+					assertNotNull(server.queues.get(id), "orders of client " + id);
+				}
+			}
+			assertEquals(1, owners, "nodes of client " + id);
+		}
+		return counts;
+	}
+
+	private Server owner(int clientId) {
+		for (Server server : servers) {
+			if (server.clients.containsKey(clientId)) {
+				return server;
+			}
+		}
+		throw new AssertionError("client " + clientId + " has no node");
+	}
+
+	/**
+	 * Lets every client buy 20 of its own stock on its node, 10 of them are sold
+	 * at once, so every client has a pending fill and a resting order of 10
+	 */
+	private void restOrders(List<Integer> ids) throws InterruptedException {
+		for (int id : ids) {
+			owner(id).getMatchingEngine().submit(id, MessageType.BuyStock, "ISIN" + id, 20);
+		}
+		sellToAll(ids);
+		awaitPendingFills(ids, 1);
+	}
+
+	private void sellToAll(List<Integer> ids) throws InterruptedException {
+		for (int id : ids) {
+			owner(id).getMatchingEngine().submit(-1, MessageType.SellStock, "ISIN" + id, 10);
+		}
+	}
+
+	/**
+	 * Waits until every client has the expected number of pending fills on its
+	 * node and none on the other nodes
+	 */
+	private void awaitPendingFills(List<Integer> ids, int expected) throws InterruptedException {
+		for (int id : ids) {
+			Server owner = owner(id);
+			long deadline = System.currentTimeMillis() + 5000;
+			CircularFifoQueue<byte[]> fills;
+			do {
+				owner.collectFills();
+				fills = owner.fills.get(id);
+				if (fills != null && fills.size() >= expected) {
+					break;
+				}
+				Thread.sleep(1);
+			} while (System.currentTimeMillis() < deadline);
+			assertNotNull(fills, "fills of client " + id);
+			assertEquals(expected, fills.size(), "fills of client " + id);
+			for (Server server : servers) {
+				if (server != owner) {
+					server.collectFills();
+					assertNull(server.fills.get(id), "fills of client " + id + " on other node");
+				}
+			}
+		}
+	}
+
+	@Test
+	public void spreadsClientsOverAllNodes() {
+		int[] counts = assertEveryClientOnOneNode(registerClients(100));
+
+		assertTrue(counts[0] > 0);
+		assertTrue(counts[1] > 0);
+	}
+
+	@Test
+	public void handsOverClientsToJoiningNode() throws IOException {
+		List<Integer> ids = registerClients(60);
+		ServerNode third = startNode(auth);
+
+		String response = admin.call("JOIN 127.0.0.1:" + third.getPort());
+
+		int[] counts = assertEveryClientOnOneNode(ids);
+		assertEquals("OK " + counts[2], response);
+		assertTrue(counts[2] > 0);
+	}
+
+	@Test
+	public void handsOverPendingFillsAndRestingOrders() throws IOException, InterruptedException {
+		List<Integer> ids = registerClients(60);
+		restOrders(ids);
+		ServerNode third = startNode(auth);
+
+		assertTrue(admin.call("JOIN 127.0.0.1:" + third.getPort()).startsWith("OK "));
+
+		// pending fills moved with their clients
+		awaitPendingFills(ids, 1);
+		// resting orders are matched on the new node only
+		sellToAll(ids);
+		awaitPendingFills(ids, 2);
+	}
+
+	@Test
+	public void ignoresJoinOfNodeInCluster() throws IOException {
+		List<Integer> ids = registerClients(30);
+		int[] before = assertEveryClientOnOneNode(ids);
+
+		// same node under another name
+		assertEquals("OK 0", admin.call("JOIN localhost:" + nodes.get(0).getPort()));
+
+		int[] after = assertEveryClientOnOneNode(ids);
+		assertEquals(before[0], after[0]);
+		assertEquals(before[1], after[1]);
+	}
+
+	@Test
+	public void abortsJoinIfNodeRejectsImport() throws IOException {
+		List<Integer> ids = registerClients(30);
+		int[] before = assertEveryClientOnOneNode(ids);
+		// node with another cluster secret rejects the requests of the router
+		ServerNode foreign = startNode(new ClusterAuth(ClusterAuth.generateSecret()));
+
+		assertEquals("ERROR", admin.call("JOIN 127.0.0.1:" + foreign.getPort()));
+
+		int[] after = assertEveryClientOnOneNode(ids);
+		assertEquals(before[0], after[0]);
+		assertEquals(before[1], after[1]);
+		assertEquals(0, after[2]);
+	}
+
+	@Test
+	public void restoresRestingOrdersWhenJoinIsAborted() throws IOException, InterruptedException {
+		List<Integer> ids = registerClients(30);
+		restOrders(ids);
+		ServerNode stopped = startNode(auth);
+		stopped.close();
+
+		assertEquals("ERROR", admin.call("JOIN 127.0.0.1:" + stopped.getPort()));
+
+		// the parked orders are back in the books of the old nodes
+		sellToAll(ids);
+		awaitPendingFills(ids, 2);
+	}
+
+	@Test
+	public void abortsJoinIfNodeIsUnreachable() throws IOException {
+		List<Integer> ids = registerClients(30);
+		int[] before = assertEveryClientOnOneNode(ids);
+		ServerNode stopped = startNode(auth);
+		stopped.close();
+
+		assertEquals("ERROR", admin.call("JOIN 127.0.0.1:" + stopped.getPort()));
+
+		int[] after = assertEveryClientOnOneNode(ids);
+		assertEquals(before[0], after[0]);
+		assertEquals(before[1], after[1]);
+
+		// the ring was not changed, new clients still go to the old nodes
+		ids.addAll(registerClients(30));
+		assertEquals(0, assertEveryClientOnOneNode(ids)[2]);
+	}
+
+	@Test
+	public void rejectsUnauthenticatedJoin() throws IOException {
+		ServerNode third = startNode(auth);
+
+		assertEquals("ERROR", client.call("JOIN 127.0.0.1:" + third.getPort()));
+	}
+}
@@ -0,0 +1,106 @@
+package main;
+
+import java.util.Arrays;
+
+import main.Message.MessageType;
+
+/**
+ * Throughput and latency benchmark of the matching engine. Not run as part of
+ * the tests.
+ *
+ * Several producer threads submit pairs of a buy and a sell order of the same
+ * amount, every producer on its own set of stocks. The buy order rests in the
+ * book, the sell order is filled completely on arrival. Measured are the time
+ * from the submit call of every sell order until the worker created its fill
+ * (latency percentiles) and the total time until all orders were matched
+ * (throughput).
+ *
+ * Run with: MatchingEngineBenchmark [shards] [producers] [orders] [stocks]
+ */
+public class MatchingEngineBenchmark {
+
+	public static void main(String[] args) throws InterruptedException {
+		int shards = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int producers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int orders = args.length > 2 ? Integer.parseInt(args[2]) : 4000000;
+		int stocks = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+
+		// warm-up run, lets the JIT compile the hot paths
+		run(shards, producers, orders / 10, stocks, false);
+		run(shards, producers, orders, stocks, true);
+	}
+
+	private static void run(int shards, int producers, int orders, int stocks, boolean report)
+			throws InterruptedException {
+		MatchingEngine engine = new MatchingEngine(shards);
+		int pairsPerProducer = orders / producers / 2;
+		int pairs = pairsPerProducer * producers;
+		// the ID of a pair is used as client ID of its orders, so every fill can be
+		// assigned to the sell order it belongs to
+		long[] submitted = new long[pairs];
+		long[] filled = new long[pairs];
+
+		Thread[] threads = new Thread[producers];
+		long start = System.nanoTime();
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			String[] isins = new String[Math.max(1, stocks / producers)];
+			for (int i = 0; i < isins.length; i++) {
+				isins[i] = String.format("BENCH%02d%05d", producer, i);
+			}
+			threads[p] = new Thread(() -> {
+				try {
+					for (int i = 0; i < pairsPerProducer; i++) {
+						int pair = producer * pairsPerProducer + i;
+						String isin = isins[i % isins.length];
+						engine.submit(pair, MessageType.BuyStock, isin, 10);
+						submitted[pair] = System.nanoTime();
+						engine.submit(pair, MessageType.SellStock, isin, 10);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			threads[p].start();
+		}
+
+		// every pair creates two fills
+		long expectedFills = 2L * pairs;
+		long fills = 0;
+		while (fills < expectedFills) {
+			long drained = engine.drainFills(fill -> {
+				if (fill.getType() == MessageType.SellStock) {
+					filled[fill.getClientId()] = fill.getCreatedNanos();
+				}
+			});
+			if (drained == 0) {
+				Thread.sleep(0, 100000);
+			}
+			fills += drained;
+		}
+		long elapsed = System.nanoTime() - start;
+		for (Thread t : threads) {
+			t.join();
+		}
+		engine.shutdown();
+
+		if (report) {
+			long[] latencies = new long[pairs];
+			for (int i = 0; i < pairs; i++) {
+				latencies[i] = filled[i] - submitted[i];
+			}
+			Arrays.sort(latencies);
+			System.out.println("shards=" + shards + " producers=" + producers + " orders=" + 2 * pairs
+					+ " stocks=" + stocks);
+			System.out.printf("throughput: %.0f orders/s (%d ms until all orders were matched)%n",
+					2 * pairs * 1e9 / elapsed, elapsed / 1000000);
+			System.out.printf("submit to fill latency: p50=%d ns p99=%d ns p99.9=%d ns max=%d ns%n",
+					percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999),
+					latencies[pairs - 1]);
+		}
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		return sorted[(int) Math.min(sorted.length - 1, Math.round(p * (sorted.length - 1)))];
+	}
+}
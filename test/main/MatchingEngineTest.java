@@ -0,0 +1,150 @@
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import main.MatchingEngine.Fill;
+import main.MatchingEngine.RestingOrder;
+import main.Message.MessageType;
+
+public class MatchingEngineTest {
+
+	private MatchingEngine engine;
+
+	@BeforeEach
+	public void startEngine() {
+		engine = new MatchingEngine(2);
+	}
+
+	@AfterEach
+	public void stopEngine() {
+		engine.shutdown();
+	}
+
+	/**
+	 * Waits until the engine has created the expected number of fills
+	 */
+	private List<Fill> awaitFills(int expected) throws InterruptedException {
+		List<Fill> fills = new ArrayList<Fill>();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (fills.size() < expected && System.currentTimeMillis() < deadline) {
+			engine.drainFills(fills::add);
+			Thread.sleep(1);
+		}
+		// no further fills must follow
+		Thread.sleep(50);
+		engine.drainFills(fills::add);
+		assertEquals(expected, fills.size());
+		return fills;
+	}
+
+	private static void assertFill(Fill fill, int clientId, MessageType type, long amount) {
+		assertEquals(clientId, fill.getClientId());
+		assertEquals(type, fill.getType());
+		assertEquals(amount, fill.getAmount());
+	}
+
+	@Test
+	public void doesNotFillOrdersOfOneSide() throws InterruptedException {
+		engine.submit(1, MessageType.BuyStock, "DE0001", 10);
+		engine.submit(2, MessageType.BuyStock, "DE0001", 10);
+		engine.submit(3, MessageType.SellStock, "DE0002", 10);
+
+		awaitFills(0);
+	}
+
+	@Test
+	public void fillsIncomingOrderPartially() throws InterruptedException {
+		engine.submit(1, MessageType.SellStock, "DE0001", 4);
+		engine.submit(2, MessageType.BuyStock, "DE0001", 10);
+
+		List<Fill> fills = awaitFills(2);
+		assertFill(fills.get(0), 2, MessageType.BuyStock, 4);
+		assertFill(fills.get(1), 1, MessageType.SellStock, 4);
+
+		// remaining 6 of the buy order rest in the book
+		engine.submit(3, MessageType.SellStock, "DE0001", 6);
+		fills = awaitFills(2);
+		assertFill(fills.get(0), 3, MessageType.SellStock, 6);
+		assertFill(fills.get(1), 2, MessageType.BuyStock, 6);
+	}
+
+	@Test
+	public void fillsRestingOrderPartially() throws InterruptedException {
+		engine.submit(1, MessageType.BuyStock, "DE0001", 10);
+		engine.submit(2, MessageType.SellStock, "DE0001", 3);
+		engine.submit(3, MessageType.SellStock, "DE0001", 3);
+
+		List<Fill> fills = awaitFills(4);
+		assertFill(fills.get(1), 1, MessageType.BuyStock, 3);
+		assertFill(fills.get(3), 1, MessageType.BuyStock, 3);
+
+		engine.submit(4, MessageType.SellStock, "DE0001", 100);
+		fills = awaitFills(2);
+		assertFill(fills.get(1), 1, MessageType.BuyStock, 4);
+	}
+
+	@Test
+	public void fillsOldestRestingOrderFirst() throws InterruptedException {
+		engine.submit(1, MessageType.SellStock, "DE0001", 5);
+		engine.submit(2, MessageType.SellStock, "DE0001", 5);
+		engine.submit(3, MessageType.SellStock, "DE0001", 5);
+		engine.submit(4, MessageType.BuyStock, "DE0001", 12);
+
+		List<Fill> fills = awaitFills(6);
+		assertFill(fills.get(1), 1, MessageType.SellStock, 5);
+		assertFill(fills.get(3), 2, MessageType.SellStock, 5);
+		assertFill(fills.get(5), 3, MessageType.SellStock, 2);
+	}
+
+	@Test
+	public void dropsBooksWithoutRestingOrders() throws InterruptedException {
+		for (int i = 0; i < 100; i++) {
+			engine.submit(1, MessageType.BuyStock, "ISIN" + i, 5);
+			engine.submit(2, MessageType.SellStock, "ISIN" + i, 5);
+		}
+		engine.submit(3, MessageType.BuyStock, "RESTING", 5);
+		engine.submit(4, MessageType.SellStock, "RESTING", 2);
+
+		awaitFills(202);
+		assertEquals(1, engine.getBookCount());
+	}
+
+	@Test
+	public void cancelsRestingOrdersOfClient() throws InterruptedException {
+		engine.submit(1, MessageType.BuyStock, "DE0001", 5);
+		engine.submit(2, MessageType.BuyStock, "DE0001", 5);
+		engine.submit(1, MessageType.BuyStock, "DE0001", 7);
+		engine.submit(1, MessageType.SellStock, "DE0002", 3);
+
+		List<RestingOrder> cancelled = engine.cancelOrders(1);
+		assertEquals(3, cancelled.size());
+		long amount = 0;
+		for (RestingOrder order : cancelled) {
+			assertEquals(1, order.getClientId());
+			amount += order.getAmount();
+		}
+		assertEquals(15, amount);
+
+		// only the order of the other client is left
+		engine.submit(3, MessageType.SellStock, "DE0001", 10);
+		List<Fill> fills = awaitFills(2);
+		assertFill(fills.get(1), 2, MessageType.BuyStock, 5);
+		assertEquals(1, engine.getBookCount());
+	}
+
+	@Test
+	public void ignoresNonPositiveAmounts() throws InterruptedException {
+		engine.submit(1, MessageType.SellStock, "DE0001", 0);
+		engine.submit(2, MessageType.SellStock, "DE0001", -5);
+		engine.submit(3, MessageType.BuyStock, "DE0001", 5);
+
+		awaitFills(0);
+	}
+}
@@ -0,0 +1,213 @@
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MessageStreamTest {
+
+	/**
+	 * Endpoint whose responses are completed by the test
+	 */
+	private static class StubEndpoint implements MessageEndpoint {
+		final LinkedBlockingQueue<String> received = new LinkedBlockingQueue<String>();
+		final LinkedBlockingQueue<CompletableFuture<String>> responses = new LinkedBlockingQueue<CompletableFuture<String>>();
+
+		@Override
+		public int registerClient(byte[] key) {
+			return 0;
+		}
+
+		@Override
+		public String acceptMessage(String message) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public CompletableFuture<String> acceptMessageAsync(String message) {
+			CompletableFuture<String> response = new CompletableFuture<String>();
+			received.add(message);
+			responses.add(response);
+			return response;
+		}
+
+		/**
+		 * Answers the oldest unanswered message
+		 */
+		void answer() throws InterruptedException {
+			CompletableFuture<String> response = responses.poll(5, TimeUnit.SECONDS);
+			response.complete("answer");
+		}
+	}
+
+	/**
+	 * Subscriber that records the responses and requests nothing by itself
+	 */
+	private static class RecordingSubscriber implements Flow.Subscriber<OrderResponse> {
+		final List<OrderResponse> responses = new CopyOnWriteArrayList<OrderResponse>();
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile Flow.Subscription subscription;
+		volatile Throwable error;
+		volatile boolean completed;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(OrderResponse response) {
+			responses.add(response);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+			done.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+			done.countDown();
+		}
+	}
+
+	private StubEndpoint server;
+	private SubmissionPublisher<String> publisher;
+	private MessageStream stream;
+	private RecordingSubscriber subscriber;
+
+	@BeforeEach
+	public void subscribe() {
+		server = new StubEndpoint();
+		publisher = new SubmissionPublisher<String>();
+		stream = new MessageStream(server, message -> "signed " + message);
+		publisher.subscribe(stream);
+		subscriber = new RecordingSubscriber();
+		stream.subscribe(subscriber);
+	}
+
+	@AfterEach
+	public void closePublisher() {
+		publisher.close();
+	}
+
+	private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertTrue(condition.getAsBoolean());
+	}
+
+	@Test
+	public void sendsOnlyAsManyMessagesAsResponsesWereRequested() throws InterruptedException {
+		for (int i = 0; i < 10; i++) {
+			publisher.submit("m" + i);
+		}
+		subscriber.subscription.request(2);
+
+		awaitCondition(() -> server.received.size() == 2);
+		Thread.sleep(50);
+		assertEquals(2, server.received.size());
+		assertEquals("signed m0", server.received.peek());
+
+		server.answer();
+		server.answer();
+		awaitCondition(() -> subscriber.responses.size() == 2);
+		// demand is used up, nothing else is sent
+		Thread.sleep(50);
+		assertEquals(2, server.received.size());
+
+		subscriber.subscription.request(3);
+		awaitCondition(() -> server.received.size() == 5);
+	}
+
+	@Test
+	public void completesOnceAllResponsesArrived() throws InterruptedException {
+		subscriber.subscription.request(Long.MAX_VALUE);
+		publisher.submit("m0");
+		publisher.submit("m1");
+		publisher.close();
+
+		awaitCondition(() -> server.received.size() == 2);
+		server.answer();
+		Thread.sleep(50);
+		// one message is still waiting for its response
+		assertFalse(subscriber.completed);
+
+		server.answer();
+		assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+		assertTrue(subscriber.completed);
+		assertEquals(2, subscriber.responses.size());
+		assertEquals("m0", subscriber.responses.get(0).getMessage());
+		assertEquals("answer", subscriber.responses.get(0).getResponse());
+	}
+
+	@Test
+	public void passesErrorOfMessagesOnAfterResponses() throws InterruptedException {
+		subscriber.subscription.request(Long.MAX_VALUE);
+		publisher.submit("m0");
+		awaitCondition(() -> server.received.size() == 1);
+		publisher.closeExceptionally(new IllegalStateException("stopped"));
+
+		Thread.sleep(50);
+		assertNull(subscriber.error);
+		server.answer();
+
+		assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+		assertEquals("stopped", subscriber.error.getMessage());
+		assertEquals(1, subscriber.responses.size());
+	}
+
+	@Test
+	public void answersFailedMessagesWithFailure() throws InterruptedException {
+		subscriber.subscription.request(1);
+		publisher.submit("m0");
+
+		server.responses.poll(5, TimeUnit.SECONDS).completeExceptionally(new IllegalStateException());
+
+		awaitCondition(() -> subscriber.responses.size() == 1);
+		assertEquals("{\"Failure\"}", subscriber.responses.get(0).getResponse());
+	}
+
+	@Test
+	public void cancelStopsMessages() throws InterruptedException {
+		subscriber.subscription.request(1);
+		publisher.submit("m0");
+		awaitCondition(() -> server.received.size() == 1);
+
+		subscriber.subscription.cancel();
+		server.answer();
+		publisher.submit("m1");
+
+		awaitCondition(() -> !publisher.hasSubscribers());
+		assertEquals(1, server.received.size());
+		assertEquals(0, subscriber.responses.size());
+	}
+
+	@Test
+	public void rejectsSecondSubscriber() throws InterruptedException {
+		RecordingSubscriber second = new RecordingSubscriber();
+		stream.subscribe(second);
+
+		assertTrue(second.done.await(5, TimeUnit.SECONDS));
+		assertTrue(second.error instanceof IllegalStateException);
+	}
+}
@@ -0,0 +1,107 @@
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import main.Message.MessageType;
+import main.OrderBookIndex.IsinVolume;
+
+public class OrderBookIndexTest {
+
+	@Test
+	public void aggregatesBuyAndSellAmounts() {
+		OrderBookIndex index = new OrderBookIndex();
+		index.addOrder(MessageType.BuyStock, "DE0001", 10);
+		index.addOrder(MessageType.BuyStock, "DE0001", 5);
+		index.addOrder(MessageType.SellStock, "DE0001", 7);
+		index.addOrder(MessageType.GetOrders, "DE0001", 100);
+
+		assertEquals(15, index.getBuyAmount("DE0001"));
+		assertEquals(7, index.getSellAmount("DE0001"));
+		assertEquals(0, index.getBuyAmount("DE0002"));
+	}
+
+	@Test
+	public void ignoresNonPositiveAmounts() {
+		OrderBookIndex index = new OrderBookIndex();
+		index.addOrder(MessageType.BuyStock, "DE0001", 10);
+		index.addOrder(MessageType.BuyStock, "DE0001", -4);
+		index.addOrder(MessageType.SellStock, "DE0001", 0);
+
+		assertEquals(10, index.getBuyAmount("DE0001"));
+		assertEquals(0, index.getSellAmount("DE0001"));
+	}
+
+	@Test
+	public void rejectsOrdersThatOverflowTheVolume() {
+		OrderBookIndex index = new OrderBookIndex();
+		assertTrue(index.addOrder(MessageType.BuyStock, "DE0001", 10));
+		assertFalse(index.addOrder(MessageType.BuyStock, "DE0001", Long.MAX_VALUE));
+		assertTrue(index.addOrder(MessageType.SellStock, "DE0001", Long.MAX_VALUE));
+
+		assertEquals(10, index.getBuyAmount("DE0001"));
+		assertEquals(Long.MAX_VALUE, index.getSellAmount("DE0001"));
+		// buy + sell does not fit into a long, the total saturates
+		assertEquals(Long.MAX_VALUE, index.getVolume("DE0001").getTotalAmount());
+		assertEquals("DE0001", index.getTopVolumes(1).get(0).getStockISIN());
+	}
+
+	@Test
+	public void keepsAllIsinsWhenTablesGrow() {
+		// far more ISINs than the initial capacity of all stripes, so every stripe
+		// grows several times and probes over colliding slots
+		OrderBookIndex index = new OrderBookIndex();
+		int isins = 20000;
+		for (int i = 0; i < isins; i++) {
+			index.addOrder(MessageType.BuyStock, "ISIN" + i, i + 1);
+			index.addOrder(MessageType.SellStock, "ISIN" + i, 1);
+		}
+		for (int i = 0; i < isins; i++) {
+			IsinVolume volume = index.getVolume("ISIN" + i);
+			assertEquals(i + 1, volume.getBuyAmount(), "ISIN" + i);
+			assertEquals(1, volume.getSellAmount(), "ISIN" + i);
+		}
+		assertEquals(isins, index.getTopVolumes(isins + 10).size());
+	}
+
+	@Test
+	public void returnsTopVolumesInDescendingOrder() {
+		OrderBookIndex index = new OrderBookIndex();
+		index.addOrder(MessageType.BuyStock, "A", 5);
+		index.addOrder(MessageType.SellStock, "B", 50);
+		index.addOrder(MessageType.BuyStock, "C", 20);
+		index.addOrder(MessageType.SellStock, "C", 20);
+		index.addOrder(MessageType.BuyStock, "D", 1);
+
+		List<IsinVolume> top = index.getTopVolumes(3);
+
+		assertEquals(3, top.size());
+		assertEquals("B", top.get(0).getStockISIN());
+		assertEquals("C", top.get(1).getStockISIN());
+		assertEquals("A", top.get(2).getStockISIN());
+		assertTrue(index.getTopVolumes(0).isEmpty());
+	}
+
+	@Test
+	public void cutsTiesAtTheLimit() {
+		OrderBookIndex index = new OrderBookIndex();
+		index.addOrder(MessageType.BuyStock, "BIG", 100);
+		for (int i = 0; i < 10; i++) {
+			index.addOrder(MessageType.BuyStock, "TIE" + i, 10);
+		}
+
+		List<IsinVolume> top = index.getTopVolumes(4);
+
+		assertEquals(4, top.size());
+		assertEquals("BIG", top.get(0).getStockISIN());
+		for (int i = 1; i < top.size(); i++) {
+			assertEquals(10, top.get(i).getTotalAmount());
+			assertTrue(top.get(i).getStockISIN().startsWith("TIE"));
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.apache.commons.collections4.queue.CircularFifoQueue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class OrderStoreTest {
+
+	private OrderStore store;
+
+	@AfterEach
+	public void stopStore() {
+		store.shutdown();
+	}
+
+	@Test
+	public void allocatesQueueWithFirstOrder() {
+		store = new OrderStore(100, 60000);
+		assertNull(store.get(1));
+
+		store.add(1, new byte[] { 1 });
+
+		assertEquals(1, store.get(1).size());
+	}
+
+	@Test
+	public void growsUpToCapacityAndReplacesOldestOrders() {
+		store = new OrderStore(20, 60000);
+		for (int i = 0; i < 25; i++) {
+			store.add(1, new byte[] { (byte) i });
+		}
+
+		CircularFifoQueue<byte[]> q = store.get(1);
+		assertEquals(20, q.size());
+		assertEquals(20, q.maxSize());
+		assertArrayEquals(new byte[] { 5 }, q.get(0));
+	}
+
+	@Test
+	public void evictsClientWithSingleOrder() throws InterruptedException {
+		store = new OrderStore(100, 50);
+		store.add(7, new byte[] { 7 });
+
+		Thread.sleep(100);
+		store.evictIdle();
+
+		assertFalse(store.isHot(7));
+		assertArrayEquals(new byte[] { 7 }, store.get(7).get(0));
+		assertTrue(store.isHot(7));
+	}
+
+	@Test
+	public void returnsCopyOfQueue() {
+		store = new OrderStore(100, 60000);
+		store.add(1, new byte[] { 1 });
+
+		CircularFifoQueue<byte[]> q = store.get(1);
+		store.add(1, new byte[] { 2 });
+
+		assertEquals(1, q.size());
+		assertEquals(2, store.get(1).size());
+	}
+
+	@Test
+	public void neverReplacesEntriesWithUnboundedCapacity() throws InterruptedException {
+		store = new OrderStore(Integer.MAX_VALUE, 50);
+		for (int i = 0; i < 1000; i++) {
+			store.add(1, new byte[] { (byte) i });
+		}
+		Thread.sleep(100);
+		store.evictIdle();
+
+		CircularFifoQueue<byte[]> q = store.remove(1);
+		assertEquals(1000, q.size());
+		assertArrayEquals(new byte[] { 0 }, q.get(0));
+		assertNull(store.get(1));
+	}
+
+	@Test
+	public void keepsColdQueueThatCanNotBeLoaded() throws Exception {
+		store = new OrderStore(100, 50);
+		store.add(1, new byte[] { 1 });
+		Thread.sleep(100);
+		store.evictIdle();
+
+		// cut the file of the client, loading it fails
+		Path file = store.coldFile(1);
+		byte[] content = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(content, content.length - 1));
+
+		assertFalse(store.add(1, new byte[] { 2 }));
+		assertFalse(store.isHot(1));
+		assertTrue(Files.exists(file));
+	}
+
+	@Test
+	public void addsOrdersWhileIdleClientsAreEvicted() throws Exception {
+		store = new OrderStore(100, 50);
+		for (int i = 0; i < 2000; i++) {
+			store.add(i, new byte[100]);
+		}
+		Thread.sleep(100);
+
+		Thread evictor = new Thread(store::evictIdle);
+		evictor.start();
+		// active clients keep working while the idle ones are written to disk
+		for (int i = 0; i < 2000; i++) {
+			assertTrue(store.add(5000 + i, new byte[] { 1 }));
+		}
+		evictor.join();
+
+		assertEquals(1, store.get(1999).size());
+		assertEquals(1, store.get(5000).size());
+	}
+
+	@Test
+	public void deletesColdTierOnShutdown() throws Exception {
+		store = new OrderStore(100, 50);
+		store.add(1, new byte[] { 1 });
+		Thread.sleep(100);
+		store.evictIdle();
+		Path file = store.coldFile(1);
+		assertTrue(Files.exists(file));
+
+		store.shutdown();
+
+		assertFalse(Files.exists(file.getParent()));
+	}
+}
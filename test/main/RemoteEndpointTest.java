@@ -0,0 +1,89 @@
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RemoteEndpointTest {
+
+	// answers every request with its argument once the latch is open
+	private final CountDownLatch open = new CountDownLatch(1);
+	private LineProtocolServer echo;
+	private RemoteEndpoint endpoint;
+
+	@BeforeEach
+	public void startServer() throws IOException {
+		echo = new LineProtocolServer(0, null) {
+			@Override
+			protected String process(String[] request, boolean authenticated) {
+				try {
+					open.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return request[1];
+			}
+		};
+		Thread t = new Thread(echo);
+		t.setDaemon(true);
+		t.start();
+		endpoint = new RemoteEndpoint(new InetSocketAddress(InetAddress.getLoopbackAddress(), echo.getPort()));
+	}
+
+	@AfterEach
+	public void stopServer() {
+		endpoint.close();
+		echo.close();
+	}
+
+	@Test
+	public void pipelinesRequestsWithoutWaiting() throws Exception {
+		List<CompletableFuture<String>> responses = new ArrayList<CompletableFuture<String>>();
+		// the server does not answer yet, the calls return at once anyway
+		for (int i = 0; i < 1000; i++) {
+			responses.add(endpoint.callAsync("ECHO " + i));
+		}
+		assertTrue(responses.stream().noneMatch(CompletableFuture::isDone));
+
+		open.countDown();
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(String.valueOf(i), responses.get(i).get(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void failsPendingRequestsWhenClosed() throws Exception {
+		CompletableFuture<String> response = endpoint.callAsync("ECHO 1");
+
+		endpoint.close();
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+		assertTrue(e.getCause() instanceof IOException);
+		// a new connection is opened for the next request
+		open.countDown();
+		assertEquals("2", endpoint.callAsync("ECHO 2").get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void answersMessagesAsynchronously() throws Exception {
+		open.countDown();
+
+		// the echo returns the encoded message as response
+		assertEquals("{\"content\": \"a b\"}",
+				endpoint.acceptMessageAsync("{\"content\": \"a b\"}").get(5, TimeUnit.SECONDS));
+	}
+}